@@ -0,0 +1,25 @@
+package org.finra.ezmachinelearning
+
+import org.finra.ezmachinelearning.helpers.{ScoringModel, ScoringServer}
+
+// Scores raw census records over HTTP with the model RFCensusIncomeExample saves, without starting Spark.
+// Arguments: [model path] [port], defaulting to target/rf-census.model and 8080. Example request:
+//
+// curl -d '{"age": 39, "workclass": "State-gov", "education": "Bachelors", "marital-status": "Never-married",
+//   "occupation": "Adm-clerical", "race": "White", "sex": "Male", "capital-gain": 2174, "capital-loss": 0,
+//   "hours-per-week": 40, "native-country": "United-States"}' http://localhost:8080/score
+object CensusScoringService {
+  def main(args: Array[String]): Unit = {
+    val modelPath = args.lift(0).getOrElse("target/rf-census.model")
+    val port = args.lift(1).map(_.toInt).getOrElse(8080)
+
+    val model = ScoringModel.load(modelPath)
+    val server = new ScoringServer(model, port).start()
+    println(s"Scoring ${model.fields.mkString(", ")} on http://localhost:${server.address.getPort}/score")
+
+    sys.addShutdownHook {
+      server.stop()
+      println(server.metrics)
+    }
+  }
+}
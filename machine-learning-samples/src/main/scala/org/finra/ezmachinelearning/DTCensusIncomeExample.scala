@@ -6,8 +6,9 @@ import org.apache.spark.ml.evaluation.MulticlassClassificationEvaluator
 import org.apache.spark.ml.feature.{IndexToString, StringIndexer, VectorAssembler}
 import org.apache.spark.mllib.evaluation.MulticlassMetrics
 import org.finra.ezmachinelearning.helpers.CommonFunctions._
+import org.finra.ezmachinelearning.helpers.PartialDependence
 import vegas.sparkExt._
-import vegas.{AggOps, Line, Quantitative, Vegas}
+import vegas.{Line, Quantitative, Vegas}
 import vegas._
 
 object DTCensusIncomeExample extends SharedSparkContext {
@@ -34,12 +35,9 @@ object DTCensusIncomeExample extends SharedSparkContext {
 
     // Create dataframes to hold census income data
     // Data retrieved from https://archive.ics.uci.edu/ml/datasets/Census+Income
-    var trainingData = spark.read.format("csv").load("src/main/resources/adult.data")
-    var testData = spark.read.format("csv").load("src/main/resources/adult.test")
-
-    // Format the data
-    trainingData = formatData(trainingData, fields, continuousFieldIndexes)
-    testData = formatData(testData, fields, continuousFieldIndexes)
+    // Rows with missing values ('?') are dropped while loading, the formatted data is cached under target/
+    val trainingData = cachedCensusData("src/main/resources/adult.data", fields, continuousFieldIndexes)
+    val testData = cachedCensusData("src/main/resources/adult.test", fields, continuousFieldIndexes)
 
     // Exclude redundant and weighted attributes from feature vector
     val (fieldsUpdated, categoricalFieldIndexesUpdated, continuousFieldIndexesUpdated) = removeFields(
@@ -140,25 +138,23 @@ object DTCensusIncomeExample extends SharedSparkContext {
     indexedData.select("indexedLabel", "label").distinct().sort("indexedLabel").show()
     showCategories(indexedData, fields, categoricalFieldIndexes, 100)
 
-    // Partial dependence plots
-    val predictionsEducation = predictionsForPartialDependencePlot(predictions.schema, indexedData, testData, model, "education")
-    val predictionsMaritalStatus = predictionsForPartialDependencePlot(predictions.schema, indexedData, testData, model, "marital-status")
-
-    val predictionsEducationExpanded = expandPredictions(predictionsEducation)
-    val predictionsMaritalStatusExpanded = expandPredictions(predictionsMaritalStatus)
+    // Partial dependence plots, both features are scored in a single pass over the test data
+    val partialDependenceData = PartialDependence.partialDependence(model, testData, Seq(
+      PartialDependence.grid(indexedData, "education"),
+      PartialDependence.grid(indexedData, "marital-status"))).cache()
 
     Vegas("Education and Income" , width=Option.apply(800d), height=Option.apply(500d))
-      .withDataFrame(predictionsEducationExpanded)
+      .withDataFrame(PartialDependence.forField(partialDependenceData, "education"))
       .mark(Line)
       .encodeX("education", Ordinal)
-      .encodeY("score1", Quantitative, aggregate = AggOps.Average)
+      .encodeY(PartialDependence.ScoreCol, Quantitative)
       .show
 
     Vegas("Marital Status and Income" , width=Option.apply(800d), height=Option.apply(500d))
-      .withDataFrame(predictionsMaritalStatusExpanded)
+      .withDataFrame(PartialDependence.forField(partialDependenceData, "marital-status"))
       .mark(Line)
       .encodeX("marital-status", Ordinal)
-      .encodeY("score1", Quantitative, aggregate = AggOps.Average)
+      .encodeY(PartialDependence.ScoreCol, Quantitative)
       .show
   }
 }
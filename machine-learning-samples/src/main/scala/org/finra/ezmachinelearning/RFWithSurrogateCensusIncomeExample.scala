@@ -5,8 +5,8 @@ import org.apache.spark.ml.classification.{DecisionTreeClassificationModel, Deci
 import org.apache.spark.ml.evaluation.MulticlassClassificationEvaluator
 import org.apache.spark.ml.feature.{IndexToString, StringIndexer, VectorAssembler}
 import org.apache.spark.mllib.evaluation.MulticlassMetrics
-import org.apache.spark.sql.functions
 import org.finra.ezmachinelearning.helpers.CommonFunctions._
+import org.finra.ezmachinelearning.helpers.Surrogate
 
 object RFWithSurrogateCensusIncomeExample extends SharedSparkContext {
 
@@ -32,16 +32,9 @@ object RFWithSurrogateCensusIncomeExample extends SharedSparkContext {
 
     // Create dataframes to hold census income data
     // Data retrieved from https://archive.ics.uci.edu/ml/datasets/Census+Income
-    var trainingData = spark.read.format("csv").load("src/main/resources/adult.data")
-    var testData = spark.read.format("csv").load("src/main/resources/adult.test")
-
-    // Format the data
-    trainingData = formatData(trainingData, fields, continuousFieldIndexes)
-    testData = formatData(testData, fields, continuousFieldIndexes)
-
-    // Add unique identifier to data for use in surrogate model
-    trainingData = trainingData.withColumn("uniqueIndex", functions.monotonically_increasing_id())
-    testData = testData.withColumn("uniqueIndex", functions.monotonically_increasing_id())
+    // Rows with missing values ('?') are dropped while loading, the formatted data is cached under target/
+    val trainingData = cachedCensusData("src/main/resources/adult.data", fields, continuousFieldIndexes)
+    val testData = cachedCensusData("src/main/resources/adult.test", fields, continuousFieldIndexes)
 
     // Exclude redundant and weighted attributes from feature vector
     val (fieldsUpdated, categoricalFieldIndexesUpdated, continuousFieldIndexesUpdated) = removeFields(
@@ -126,40 +119,21 @@ object RFWithSurrogateCensusIncomeExample extends SharedSparkContext {
     indexedData.select("indexedLabel", "label").distinct().sort("indexedLabel").show()
     showCategories(indexedData, fields, categoricalFieldIndexes, 100)
 
-    // Get random forest predictions on training data for use in training surrogate model
-    val predictionsTraining = model.transform(trainingData)
-
-    // Build training and test data set for surrogate based on predictions from random forest
-    val trainingDataSurrogate = predictionsTraining.select((Seq("predictedLabel", "uniqueIndex") ++ fields).map(x => functions.col(x)):_*)
-      .withColumnRenamed("predictedLabel", "label")
-    val testDataSurrogate = predictionsTest.select((Seq("predictedLabel", "uniqueIndex") ++ fields).map(x => functions.col(x)):_*)
-      .withColumnRenamed("predictedLabel", "label")
-
     // Create decision tree
     val dt = new DecisionTreeClassifier()
-      .setLabelCol("indexedLabel")
       .setFeaturesCol("features")
       .setMaxBins(42) // Since feature "native-country" contains 42 distinct values, need to increase max bins to at least 42.
       .setMaxDepth(5)
       .setImpurity("gini")
 
-    val stageArraySurrogate = indexerArray ++ Array(vectorAssembler, dt, labelConverter)
-
-    val pipelineSurrogate = new Pipeline()
-      .setStages(stageArraySurrogate)
-
-    // Train the surrogate model
-    val modelSurrogate = pipelineSurrogate.fit(trainingDataSurrogate)
-
-    // Test the surrogate model
-    val predictionsSurrogate = modelSurrogate.transform(testDataSurrogate)
+    // Train the surrogate model on the random forest's predictions and features
+    val modelSurrogate = Surrogate.fit(model, dt, trainingData)
 
-    val accuracySurrogate = evaluator.evaluate(predictionsSurrogate)
-    println(s"Test error = ${1.0 - accuracySurrogate}\n")
+    // Score the test data with the random forest and the surrogate in one pass and analyze how close they are
+    val fidelity = Surrogate.fidelity(modelSurrogate, testData, labelIndexer.labels.length)
+    println(s"Test error = ${1.0 - fidelity.agreement}\n")
 
-    println(s"Confusion matrix:\n ${metrics.confusionMatrix}\n")
-
-    val treeModelSurrogate = modelSurrogate.stages(stageArraySurrogate.length - 2).asInstanceOf[DecisionTreeClassificationModel]
+    val treeModelSurrogate = modelSurrogate.stages.last.asInstanceOf[DecisionTreeClassificationModel]
 
     val featureImportancesSurrogate = treeModelSurrogate.featureImportances.toArray.zipWithIndex.map(x => Tuple2(fields(x._2), x._1)).sortWith(_._2 > _._2)
     println("Feature importances sorted:")
@@ -176,27 +150,6 @@ object RFWithSurrogateCensusIncomeExample extends SharedSparkContext {
 
     println(s"Learned classification tree model:\n $treeModelStringSurrogate")
 
-    // Analyze how close the predictions of the surrogate model are to the random forest
-    val predictionsJoined = predictionsSurrogate.as("a")
-      .join(predictionsTest.as("b"), Seq("uniqueIndex"), "left_outer")
-      .selectExpr("a.prediction as predictionSurrogate", "b.prediction")
-
-    spark.udf.register("difference-square",
-      (x: Double, y: Double) => scala.math.pow(x - y, 2)
-    )
-
-    val meanPrediction = predictionsJoined.agg(functions.mean("prediction")).collect()(0).getDouble(0)
-
-    var sse = predictionsJoined.withColumn("sse", functions.callUDF("difference-square",
-      functions.col("predictionSurrogate"),
-      functions.col("prediction"))
-    ).agg(functions.sum("sse").as("sse")).select("sse").collect()(0).getDouble(0)
-
-    var sst = predictionsJoined.withColumn("sst", functions.callUDF("difference-square",
-      functions.col("predictionSurrogate"),
-      functions.lit(meanPrediction))
-    ).agg(functions.sum("sst").as("sst")).select("sst").collect()(0).getDouble(0)
-
-    println(s"How close are the predictions of the surrogate model to the random forest?\n ${1 - (sse / sst)}\n")
+    println(s"How close are the predictions of the surrogate model to the random forest?\n $fidelity")
   }
 }
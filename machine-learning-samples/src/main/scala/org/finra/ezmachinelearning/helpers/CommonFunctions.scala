@@ -1,36 +1,101 @@
 package org.finra.ezmachinelearning.helpers
 
+import java.io.IOException
+import java.security.{DigestInputStream, MessageDigest}
+import java.util.UUID
+
+import org.apache.hadoop.fs.Path
 import org.apache.spark.ml.PipelineModel
 import org.apache.spark.ml.linalg.Vector
-import org.apache.spark.sql.types.StructType
-import org.apache.spark.sql.{DataFrame, Row, functions}
+import org.apache.spark.sql.types.{DoubleType, StringType, StructField, StructType}
+import org.apache.spark.sql.{DataFrame, functions}
 import org.finra.ezmachinelearning.SharedSparkContext
 
 object CommonFunctions extends SharedSparkContext {
   def formatData(df: DataFrame, fields: Seq[String], continuousFieldIndexes: Seq[Int]): DataFrame = {
-    var data = df
+    val continuous = continuousFieldIndexes.toSet
 
-    // Trim leading spaces from data
-    for (colName <- data.columns)
-      data = data.withColumn(colName, functions.ltrim(functions.col(colName)))
+    // Trim leading spaces, assign column names and convert continuous values to double in a single projection
+    val columns = fields.indices.map { i =>
+      val trimmed = functions.ltrim(functions.col("_c" + i))
+      (if (continuous(i)) trimmed.cast(DoubleType) else trimmed).as(fields(i))
+    }
 
-    // Assign column names
-    for (i <- fields.indices)
-      data = data.withColumnRenamed("_c" + i, fields(i))
+    // Remove '.' character from label
+    val label = functions.regexp_replace(functions.ltrim(functions.col("_c" + fields.length)), "\\.", "").as("label")
+
+    df.select(columns :+ label: _*)
+  }
 
-    data = data.withColumnRenamed("_c14", "label")
+  def censusSchema(fields: Seq[String], continuousFieldIndexes: Seq[Int]): StructType = {
+    val continuous = continuousFieldIndexes.toSet
+
+    StructType(
+      fields.indices.map(i => StructField(fields(i), if (continuous(i)) DoubleType else StringType)) :+
+        StructField("label", StringType))
+  }
+
+  // Reads census data with its schema up front instead of formatting an all-string frame, and drops rows with
+  // missing values ('?')
+  def loadCensusData(path: String, fields: Seq[String], continuousFieldIndexes: Seq[Int]): DataFrame = {
+    spark.read
+      .schema(censusSchema(fields, continuousFieldIndexes))
+      .option("ignoreLeadingWhiteSpace", "true")
+      .option("nullValue", "?")
+      .option("comment", "|") // The UCI copy of adult.test starts with a "|1x3 Cross validator" line
+      .csv(path)
+      .na.drop()
+      .select(fields.map(functions.col) :+
+        functions.regexp_replace(functions.col("label"), "\\.", "").as("label"): _*)
+  }
 
-    // Convert continuous values from string to double
-    for (i <- continuousFieldIndexes) {
-      data = data.withColumn(fields(i), functions.col(fields(i)).cast("double"))
+  // Formatted census data is kept as Parquet, keyed by the checksum of the source file and the field layout, so later
+  // runs skip CSV parsing and only read the columns they use
+  def cachedCensusData(path: String, fields: Seq[String], continuousFieldIndexes: Seq[Int],
+                       cacheDir: String = "target/dataset-cache"): DataFrame = {
+    val source = new Path(path)
+    val fs = source.getFileSystem(spark.sparkContext.hadoopConfiguration)
+    val key = digest((checksum(source) +: fields :+ continuousFieldIndexes.mkString(",")).mkString("\n").getBytes("UTF-8"))
+    val cached = new Path(cacheDir, source.getName + "-" + key)
+
+    if (!fs.exists(new Path(cached, "_SUCCESS"))) {
+      // Written aside and renamed into place, so concurrent callers never read or overwrite a partial cache. Spark
+      // skips paths starting with '_', should a rename ever leave the copy inside the cache
+      val written = new Path(cacheDir, "_" + cached.getName + "-" + UUID.randomUUID())
+      loadCensusData(path, fields, continuousFieldIndexes).write.parquet(written.toString)
+
+      if (!fs.rename(written, cached) && !fs.exists(new Path(cached, "_SUCCESS"))) {
+        throw new IOException(s"Could not move $written to $cached")
+      }
+
+      // Another caller may have got there first, in which case its copy is kept
+      fs.delete(written, true)
+      fs.delete(new Path(cached, written.getName), true)
     }
 
-    // Remove '.' character from label
-    data = data.withColumn("label", functions.regexp_replace(functions.col("label"), "\\.", ""))
+    spark.read.parquet(cached.toString)
+  }
 
-    data
+  private def checksum(path: Path): String = {
+    val fs = path.getFileSystem(spark.sparkContext.hadoopConfiguration)
+
+    // HDFS keeps block checksums, local files have to be read through once
+    Option(fs.getFileChecksum(path)).map(c => digest(c.getBytes)).getOrElse {
+      val md5 = MessageDigest.getInstance("MD5")
+      val in = new DigestInputStream(fs.open(path), md5)
+      try {
+        val buffer = new Array[Byte](1 << 16)
+        while (in.read(buffer) != -1) {}
+      } finally {
+        in.close()
+      }
+      md5.digest().map("%02x".format(_)).mkString
+    }
   }
 
+  private def digest(bytes: Array[Byte]): String =
+    MessageDigest.getInstance("MD5").digest(bytes).map("%02x".format(_)).mkString
+
   def removeFields(fields: Seq[String], categoricalFieldIndexes: Seq[Int], continuousFieldIndexes: Seq[Int], removeFields: String*):
   (Seq[String], Seq[Int], Seq[Int]) = {
     var fieldsUpdated = fields
@@ -63,15 +128,10 @@ object CommonFunctions extends SharedSparkContext {
     }
   }
 
+  // Test data scored once per distinct value of the field, see PartialDependence for several fields and binned grids
   def predictionsForPartialDependencePlot(schema: StructType, indexedData: DataFrame, testData: DataFrame, model: PipelineModel, fieldName: String): DataFrame = {
-    var predictions = spark.createDataFrame(spark.sparkContext.emptyRDD[Row], schema)
-
-    for (i <- indexedData.select(fieldName).distinct().orderBy(fieldName).collect()) {
-      val testDataIteration = testData.withColumn(fieldName, functions.lit(i.get(0)))
-      predictions = predictions.union(model.transform(testDataIteration))
-    }
-
-    predictions
+    PartialDependence.iceData(model, testData, Seq(PartialDependence.distinctGrid(indexedData, fieldName)))
+      .select(schema.fieldNames.map(functions.col): _*)
   }
 
   def expandPredictions(predictions: DataFrame): DataFrame = {
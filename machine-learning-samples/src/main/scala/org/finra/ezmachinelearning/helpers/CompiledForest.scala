@@ -0,0 +1,178 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.classification.{DecisionTreeClassificationModel, RandomForestClassificationModel}
+import org.apache.spark.ml.tree._
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+
+// Decision trees and random forests compiled into flat primitive arrays, for scoring single double[] feature vectors
+// outside of Spark. Nodes of all trees share the arrays, each tree laid out in pre-order so a left child follows its
+// parent. An internal node holds its feature index, a threshold or a category bitset and the offsets of its children;
+// a leaf has feature -1 and points at its class probabilities. Scoring walks the arrays and allocates nothing, which
+// matches Spark: continuous splits go left when the value is <= threshold, categorical splits when the value is one of
+// the left categories, and a forest averages the class probabilities of its trees.
+class CompiledForest private(val numClasses: Int,
+                             roots: Array[Int],
+                             feature: Array[Int],
+                             threshold: Array[Double],
+                             leftChild: Array[Int],
+                             rightChild: Array[Int],
+                             categoryOffset: Array[Int],
+                             categoryWords: Array[Int],
+                             categories: Array[Long],
+                             leafProbabilities: Array[Double]) extends Serializable {
+
+  @transient private lazy val scratch = new ThreadLocal[Array[Double]] {
+    override def initialValue(): Array[Double] = new Array[Double](numClasses)
+  }
+
+  def numTrees: Int = roots.length
+
+  def numNodes: Int = feature.length
+
+  // Fills probability, of length numClasses, with the class probabilities for the features
+  def probability(features: Array[Double], probability: Array[Double]): Unit = {
+    java.util.Arrays.fill(probability, 0.0)
+
+    var tree = 0
+    while (tree < roots.length) {
+      val leaf = leftChild(leafOf(roots(tree), features))
+      var i = 0
+      while (i < numClasses) {
+        probability(i) += leafProbabilities(leaf + i)
+        i += 1
+      }
+      tree += 1
+    }
+
+    var total = 0.0
+    var i = 0
+    while (i < numClasses) {
+      total += probability(i)
+      i += 1
+    }
+    if (total > 0) {
+      i = 0
+      while (i < numClasses) {
+        probability(i) /= total
+        i += 1
+      }
+    }
+  }
+
+  // Index of the most probable class, the lowest on ties
+  def predict(features: Array[Double]): Double = {
+    val probabilities = scratch.get()
+    probability(features, probabilities)
+
+    var best = 0
+    var i = 1
+    while (i < numClasses) {
+      if (probabilities(i) > probabilities(best)) {
+        best = i
+      }
+      i += 1
+    }
+    best
+  }
+
+  private def leafOf(root: Int, features: Array[Double]): Int = {
+    var node = root
+    while (feature(node) >= 0) {
+      val value = features(feature(node))
+      val goLeft =
+        if (categoryOffset(node) < 0) {
+          value <= threshold(node)
+        } else {
+          val category = value.toInt
+          category >= 0 && category < categoryWords(node) * 64 &&
+            (categories(categoryOffset(node) + (category >>> 6)) & (1L << category)) != 0
+        }
+      node = if (goLeft) leftChild(node) else rightChild(node)
+    }
+    node
+  }
+}
+
+object CompiledForest {
+  def compile(tree: DecisionTreeClassificationModel): CompiledForest = compile(Seq(tree.rootNode), tree.numClasses)
+
+  def compile(forest: RandomForestClassificationModel): CompiledForest = {
+    // Spark averages the trees without their weights, which are all 1.0 for a trained forest
+    compile(forest.trees.map(_.rootNode), forest.numClasses)
+  }
+
+  private def compile(rootNodes: Seq[Node], numClasses: Int): CompiledForest = {
+    val roots = new ArrayBuffer[Int]
+    val feature = new ArrayBuffer[Int]
+    val threshold = new ArrayBuffer[Double]
+    val leftChild = new ArrayBuffer[Int]
+    val rightChild = new ArrayBuffer[Int]
+    val categoryOffset = new ArrayBuffer[Int]
+    val categoryWords = new ArrayBuffer[Int]
+    val categories = new ArrayBuffer[Long]
+    val leafProbabilities = new ArrayBuffer[Double]
+
+    for (rootNode <- rootNodes) {
+      // Nodes waiting to be laid out, with the index of the parent whose left or right child they are
+      val pending = mutable.ArrayStack[(Node, Int, Boolean)]((rootNode, -1, true))
+      roots += feature.length
+
+      while (pending.nonEmpty) {
+        val (node, parent, isLeft) = pending.pop()
+        val index = feature.length
+        if (parent >= 0) {
+          if (isLeft) leftChild(parent) = index else rightChild(parent) = index
+        }
+
+        node match {
+          case internal: InternalNode =>
+            feature += internal.split.featureIndex
+            internal.split match {
+              case continuous: ContinuousSplit =>
+                threshold += continuous.threshold
+                categoryOffset += -1
+                categoryWords += 0
+              case categorical: CategoricalSplit =>
+                val words = if (categorical.leftCategories.isEmpty) 0 else categorical.leftCategories.max.toInt / 64 + 1
+                val bitset = new Array[Long](words)
+                categorical.leftCategories.foreach(c => bitset(c.toInt >>> 6) |= 1L << c.toInt)
+                threshold += Double.NaN
+                categoryOffset += categories.length
+                categoryWords += words
+                categories ++= bitset
+            }
+            leftChild += -1
+            rightChild += -1
+            pending.push((internal.rightChild, index, false))
+            pending.push((internal.leftChild, index, true))
+          case leaf =>
+            feature += -1
+            threshold += Double.NaN
+            leftChild += leafProbabilities.length
+            rightChild += -1
+            categoryOffset += -1
+            categoryWords += 0
+            leafProbabilities ++= normalized(classCounts(leaf), numClasses)
+        }
+      }
+    }
+
+    new CompiledForest(numClasses, roots.toArray, feature.toArray, threshold.toArray, leftChild.toArray,
+      rightChild.toArray, categoryOffset.toArray, categoryWords.toArray, categories.toArray, leafProbabilities.toArray)
+  }
+
+  // Spark keeps the class counts of a leaf in impurityStats, which is private to Spark ML; being package private in
+  // Scala it is public in the bytecode, so it is read reflectively once while compiling
+  private def classCounts(leaf: Node): Array[Double] = {
+    val stats = leaf.getClass.getMethod("impurityStats").invoke(leaf)
+    stats.getClass.getMethod("stats").invoke(stats).asInstanceOf[Array[Double]]
+  }
+
+  private def normalized(counts: Array[Double], numClasses: Int): Array[Double] = {
+    val probabilities = counts.padTo(numClasses, 0.0)
+    val total = probabilities.sum
+    if (total > 0) probabilities.map(_ / total) else probabilities
+  }
+}
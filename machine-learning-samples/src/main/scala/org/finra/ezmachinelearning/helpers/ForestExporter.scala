@@ -0,0 +1,221 @@
+package org.finra.ezmachinelearning.helpers
+
+import java.io.{ByteArrayOutputStream, DataOutputStream, OutputStream}
+import java.util.concurrent.Executors
+
+import com.fasterxml.jackson.core.{JsonEncoding, JsonFactory, JsonGenerator}
+import org.apache.spark.ml.classification.{DecisionTreeClassificationModel, RandomForestClassificationModel}
+import org.apache.spark.ml.tree._
+
+import scala.collection.mutable
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+// Streams decision trees and whole random forests to an output stream, as compact JSON with the same node fields as
+// SparkMLTree.toJsonPlotFormat or in a binary form. Nodes are visited with an explicit stack instead of recursion and
+// written as they are visited, so memory grows with the depth of a tree rather than the size of the forest, and deep
+// trees cannot overflow the call stack. With parallelism > 1 that many trees are encoded at once into buffers and
+// written in order, which holds up to parallelism encoded trees in memory.
+//
+// JSON: {"numTrees": n, "trees": [{"weight": w, "rootNode": {...}}, ...]}
+// Binary, big-endian: int magic, int version, int tree count, then per tree its double weight and its nodes in
+// pre-order. A node is a byte kind (0 leaf, 1 continuous split, 2 categorical split), double prediction, double
+// impurity and, for splits, int feature index, double gain and either double threshold or int number of categories of
+// the feature, int count and doubles of the left categories.
+object ForestExporter {
+  val BinaryMagic: Int = 0x52464d54 // "RFMT"
+  val BinaryVersion: Int = 2
+
+  val BinaryLeaf: Byte = 0
+  val BinaryContinuousSplit: Byte = 1
+  val BinaryCategoricalSplit: Byte = 2
+
+  private val jsonFactory = new JsonFactory()
+
+  def writeJson(tree: DecisionTreeClassificationModel, out: OutputStream): Unit = {
+    val generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)
+    writeJsonNodes(tree.rootNode, generator)
+    generator.flush()
+  }
+
+  def writeJson(forest: RandomForestClassificationModel, out: OutputStream, parallelism: Int = 1): Unit = {
+    val generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)
+    generator.writeStartObject()
+    generator.writeNumberField("numTrees", forest.trees.length)
+    generator.writeArrayFieldStart("trees")
+
+    forEachTree(forest, parallelism, { (tree, weight, buffer) =>
+      val treeGenerator = jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)
+      writeJsonTree(tree, weight, treeGenerator)
+      treeGenerator.flush()
+    }, { (tree, weight, encoded) =>
+      encoded match {
+        case Some(bytes) => generator.writeRawValue(new String(bytes, "UTF-8"))
+        case None => writeJsonTree(tree, weight, generator)
+      }
+    })
+
+    generator.writeEndArray()
+    generator.writeEndObject()
+    generator.flush()
+  }
+
+  def writeBinary(forest: RandomForestClassificationModel, out: OutputStream, parallelism: Int = 1): Unit = {
+    val data = new DataOutputStream(out)
+    data.writeInt(BinaryMagic)
+    data.writeInt(BinaryVersion)
+    data.writeInt(forest.trees.length)
+
+    forEachTree(forest, parallelism, { (tree, weight, buffer) =>
+      writeBinaryTree(tree, weight, new DataOutputStream(buffer))
+    }, { (tree, weight, encoded) =>
+      encoded match {
+        case Some(bytes) => data.write(bytes)
+        case None => writeBinaryTree(tree, weight, data)
+      }
+    })
+
+    data.flush()
+  }
+
+  // Encodes trees into buffers on a thread pool when parallel and hands them to write in tree order, otherwise lets
+  // write stream each tree directly
+  private def forEachTree(forest: RandomForestClassificationModel, parallelism: Int,
+                          encode: (DecisionTreeClassificationModel, Double, OutputStream) => Unit,
+                          write: (DecisionTreeClassificationModel, Double, Option[Array[Byte]]) => Unit): Unit = {
+    val trees = forest.trees.zip(forest.treeWeights)
+
+    if (parallelism <= 1) {
+      trees.foreach { case (tree, weight) => write(tree, weight, None) }
+    } else {
+      val pool = Executors.newFixedThreadPool(parallelism)
+      implicit val context: ExecutionContext = ExecutionContext.fromExecutorService(pool)
+      try {
+        for (batch <- trees.grouped(parallelism)) {
+          val encoded = batch.map { case (tree, weight) =>
+            Future {
+              val buffer = new ByteArrayOutputStream()
+              encode(tree, weight, buffer)
+              buffer.toByteArray
+            }
+          }
+          for (((tree, weight), bytes) <- batch.zip(encoded)) {
+            write(tree, weight, Some(Await.result(bytes, Duration.Inf)))
+          }
+        }
+      } finally {
+        pool.shutdownNow()
+      }
+    }
+  }
+
+  private def writeJsonTree(tree: DecisionTreeClassificationModel, weight: Double, generator: JsonGenerator): Unit = {
+    generator.writeStartObject()
+    generator.writeNumberField("weight", weight)
+    generator.writeFieldName("rootNode")
+    writeJsonNodes(tree.rootNode, generator)
+    generator.writeEndObject()
+  }
+
+  // A node is entered when first popped, and pushed back to close its right child and then itself
+  private def writeJsonNodes(root: Node, generator: JsonGenerator): Unit = {
+    val EnterNode = 0
+    val RightChild = 1
+    val CloseNode = 2
+
+    val stack = mutable.ArrayStack[(Node, Int)]((root, EnterNode))
+    while (stack.nonEmpty) {
+      stack.pop() match {
+        case (node, EnterNode) =>
+          generator.writeStartObject()
+          writeJsonFields(node, generator)
+          node match {
+            case internal: InternalNode =>
+              stack.push((internal, RightChild))
+              generator.writeFieldName("leftChild")
+              stack.push((internal.leftChild, EnterNode))
+            case _ =>
+              generator.writeEndObject()
+          }
+        case (internal: InternalNode, RightChild) =>
+          stack.push((internal, CloseNode))
+          generator.writeFieldName("rightChild")
+          stack.push((internal.rightChild, EnterNode))
+        case (_, CloseNode) =>
+          generator.writeEndObject()
+      }
+    }
+  }
+
+  private def writeJsonFields(node: Node, generator: JsonGenerator): Unit = {
+    node match {
+      case internal: InternalNode =>
+        generator.writeNumberField("featureIndex", internal.split.featureIndex)
+        generator.writeNumberField("gain", internal.gain)
+      case _ =>
+    }
+    generator.writeNumberField("impurity", node.impurity)
+
+    node match {
+      case internal: InternalNode =>
+        internal.split match {
+          case continuous: ContinuousSplit =>
+            generator.writeNumberField("threshold", continuous.threshold)
+            generator.writeStringField("nodeType", "internal")
+            generator.writeStringField("splitType", "continuous")
+          case categorical: CategoricalSplit =>
+            generator.writeStringField("nodeType", "internal")
+            generator.writeStringField("splitType", "categorical")
+            writeJsonArray("leftCategories", categorical.leftCategories, generator)
+            writeJsonArray("rightCategories", categorical.rightCategories, generator)
+        }
+      case _ =>
+        generator.writeStringField("nodeType", "leaf")
+    }
+    generator.writeNumberField("prediction", node.prediction)
+  }
+
+  private def writeJsonArray(name: String, values: Array[Double], generator: JsonGenerator): Unit = {
+    generator.writeArrayFieldStart(name)
+    values.foreach(value => generator.writeNumber(value))
+    generator.writeEndArray()
+  }
+
+  // Pre-order with the right child pushed first, so the stack holds at most one pending sibling per level
+  private def writeBinaryTree(tree: DecisionTreeClassificationModel, weight: Double, data: DataOutputStream): Unit = {
+    data.writeDouble(weight)
+
+    val stack = mutable.ArrayStack[Node](tree.rootNode)
+    while (stack.nonEmpty) {
+      val node = stack.pop()
+      node match {
+        case internal: InternalNode =>
+          internal.split match {
+            case _: ContinuousSplit => data.writeByte(BinaryContinuousSplit)
+            case _: CategoricalSplit => data.writeByte(BinaryCategoricalSplit)
+          }
+        case _ => data.writeByte(BinaryLeaf)
+      }
+      data.writeDouble(node.prediction)
+      data.writeDouble(node.impurity)
+
+      node match {
+        case internal: InternalNode =>
+          data.writeInt(internal.split.featureIndex)
+          data.writeDouble(internal.gain)
+          internal.split match {
+            case continuous: ContinuousSplit =>
+              data.writeDouble(continuous.threshold)
+            case categorical: CategoricalSplit =>
+              data.writeInt(categorical.numCategories)
+              data.writeInt(categorical.leftCategories.length)
+              categorical.leftCategories.foreach(data.writeDouble)
+          }
+          stack.push(internal.rightChild)
+          stack.push(internal.leftChild)
+        case _ =>
+      }
+    }
+    data.flush()
+  }
+}
@@ -0,0 +1,111 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.PipelineModel
+import org.apache.spark.ml.linalg.Vector
+import org.apache.spark.sql.types._
+import org.apache.spark.sql.{DataFrame, Row, functions}
+import org.finra.ezmachinelearning.SharedSparkContext
+
+// Values a feature is set to when computing partial dependence
+case class Grid(field: String, values: Seq[Any], dataType: DataType)
+
+// Partial dependence (PDP) and individual conditional expectation (ICE) for any number of features. Every row of the
+// data is paired with every grid point in one cross join against a broadcast grid, scored with a single transform and
+// averaged per grid point on the executors, instead of transforming and unioning one copy of the data per value.
+object PartialDependence extends SharedSparkContext {
+  val FeatureCol = "pdpFeature"
+  val GridIndexCol = "pdpGridIndex"
+  val ValueCol = "pdpValue"
+  val RowIdCol = "pdpRowId"
+  val ScoreCol = "score"
+  val RowsCol = "rows"
+
+  // Grid values keep the type of their field in pdpGridValue<i> columns, marked with the field in their metadata
+  private val GridValueCol = "pdpGridValue"
+  private val GridFieldKey = "pdpField"
+
+  // All distinct values of a field, in order
+  def distinctGrid(data: DataFrame, field: String): Grid = {
+    val values = data.select(field).where(functions.col(field).isNotNull).distinct().orderBy(field).collect().map(_.get(0))
+    Grid(field, values, data.schema(field).dataType)
+  }
+
+  // Quantiles of a numeric field from 0 to 1 in steps of 1 / bins, so the grid follows the data and stays small for
+  // continuous fields
+  def quantileGrid(data: DataFrame, field: String, bins: Int, relativeError: Double = 0.001): Grid = {
+    val probabilities = (0 to bins).map(_.toDouble / bins).toArray
+    val values = data.stat.approxQuantile(field, probabilities, relativeError).distinct.sorted
+    Grid(field, values, DoubleType)
+  }
+
+  // Quantile bins for numeric fields when bins > 0, distinct values otherwise
+  def grid(data: DataFrame, field: String, bins: Int = 0): Grid = data.schema(field).dataType match {
+    case _: NumericType if bins > 0 => quantileGrid(data, field, bins)
+    case _ => distinctGrid(data, field)
+  }
+
+  // One scored row per row of the data and grid point; the other features keep their values. pdpRowId identifies the
+  // original row, so each ICE curve is the rows sharing it within a feature. pdpValue is the grid value as text for
+  // display, forField gives it with the type of the field.
+  def iceData(model: PipelineModel, data: DataFrame, grids: Seq[Grid], scoreIndex: Int = 1): DataFrame = {
+    require(grids.map(_.field).distinct.size == grids.size, "Each field can only have one grid")
+
+    val gridSchema = StructType(Seq(
+      StructField(FeatureCol, StringType),
+      StructField(GridIndexCol, IntegerType),
+      StructField(ValueCol, StringType)) ++
+      grids.indices.map(i => StructField(GridValueCol + i, grids(i).dataType)))
+
+    val gridRows = for ((grid, i) <- grids.zipWithIndex; (value, j) <- grid.values.zipWithIndex)
+      yield Row.fromSeq(Seq(grid.field, j, String.valueOf(value)) ++ grids.indices.map(k => if (k == i) value else null))
+
+    val gridData = spark.createDataFrame(spark.sparkContext.parallelize(gridRows, 1), gridSchema)
+
+    // Swap in the grid value for the feature of each grid row, in a single projection
+    val fieldGrids = grids.map(_.field).zipWithIndex.toMap
+    val columns = data.columns.map { c =>
+      fieldGrids.get(c) match {
+        case Some(i) =>
+          functions.when(functions.col(FeatureCol) === c, functions.col(GridValueCol + i).cast(data.schema(c).dataType))
+            .otherwise(functions.col(c)).as(c)
+        case None => functions.col(c)
+      }
+    }
+
+    val gridValues = grids.indices.map { i =>
+      functions.col(GridValueCol + i).cast(data.schema(grids(i).field).dataType)
+        .as(GridValueCol + i, new MetadataBuilder().putString(GridFieldKey, grids(i).field).build())
+    }
+
+    val expanded = data
+      .withColumn(RowIdCol, functions.monotonically_increasing_id())
+      .crossJoin(functions.broadcast(gridData))
+      .select(columns ++ Seq(RowIdCol, FeatureCol, GridIndexCol, ValueCol).map(functions.col) ++ gridValues: _*)
+
+    val score = functions.udf((probability: Vector) => probability(scoreIndex))
+    val predictions = model.transform(expanded)
+    predictions.withColumn(ScoreCol, score(predictions.col("probability")))
+  }
+
+  // Average score and number of rows per feature and grid point
+  def partialDependence(ice: DataFrame): DataFrame = {
+    ice.groupBy((Seq(FeatureCol, GridIndexCol, ValueCol) ++ gridValueCols(ice).map(_.name)).map(functions.col): _*)
+      .agg(functions.avg(ScoreCol).as(ScoreCol), functions.count(functions.lit(1)).as(RowsCol))
+      .orderBy(FeatureCol, GridIndexCol)
+  }
+
+  def partialDependence(model: PipelineModel, data: DataFrame, grids: Seq[Grid]): DataFrame =
+    partialDependence(iceData(model, data, grids))
+
+  // Grid points of one feature in grid order, with the value column named after the field and of its type
+  def forField(partialDependence: DataFrame, field: String): DataFrame = {
+    val valueCol = gridValueCols(partialDependence).find(_.metadata.getString(GridFieldKey) == field)
+      .getOrElse(throw new IllegalArgumentException(s"No grid for $field"))
+
+    partialDependence.where(functions.col(FeatureCol) === field)
+      .select(functions.col(valueCol.name).as(field), functions.col(ScoreCol), functions.col(RowsCol))
+  }
+
+  private def gridValueCols(data: DataFrame): Seq[StructField] =
+    data.schema.filter(f => f.name.startsWith(GridValueCol) && f.metadata.contains(GridFieldKey))
+}
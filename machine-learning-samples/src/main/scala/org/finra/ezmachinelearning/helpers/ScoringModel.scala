@@ -0,0 +1,105 @@
+package org.finra.ezmachinelearning.helpers
+
+import java.io._
+
+import org.apache.spark.ml.PipelineModel
+import org.apache.spark.ml.classification.{DecisionTreeClassificationModel, RandomForestClassificationModel}
+import org.apache.spark.ml.feature.{StringIndexerModel, VectorAssembler}
+
+// One input of the feature vector, in VectorAssembler order
+sealed trait FeatureInput extends Serializable {
+  def field: String
+}
+
+// A string field mapped to the index its StringIndexer assigned; unseen values get the next index when the indexer
+// keeps invalid values, and are rejected otherwise
+case class CategoricalInput(field: String, labels: Array[String], keepInvalid: Boolean) extends FeatureInput {
+  @transient lazy val indexes: Map[String, Int] = labels.zipWithIndex.toMap
+}
+
+case class ContinuousInput(field: String) extends FeatureInput
+
+case class Prediction(label: String, probability: Array[Double])
+
+// The parts of a fitted census pipeline needed to score raw records without a SparkSession: the StringIndexer
+// mappings, the VectorAssembler order, the labels of the label indexer and the trees compiled by CompiledForest.
+// It is extracted once from a PipelineModel and saved with Java serialization, so loading it needs no Spark.
+class ScoringModel(val inputs: Array[FeatureInput], val labels: Array[String], val forest: CompiledForest)
+  extends Serializable {
+
+  def fields: Seq[String] = inputs.map(_.field).distinct
+
+  // Scores a batch of records, each a map of field name to raw value
+  def score(records: Seq[String => Option[String]]): Seq[Prediction] = {
+    val features = new Array[Double](inputs.length)
+    records.map { record =>
+      featureVector(record, features)
+      val probability = new Array[Double](forest.numClasses)
+      forest.probability(features, probability)
+      Prediction(labels(argmax(probability)), probability)
+    }
+  }
+
+  private def featureVector(record: String => Option[String], features: Array[Double]): Unit = {
+    var i = 0
+    while (i < inputs.length) {
+      features(i) = inputs(i) match {
+        case input: CategoricalInput =>
+          val value = required(record, input.field).trim
+          input.indexes.get(value) match {
+            case Some(index) => index
+            case None if input.keepInvalid => input.labels.length
+            case None => throw new IllegalArgumentException(s"Unknown value '$value' for ${input.field}")
+          }
+        case input: ContinuousInput =>
+          val value = required(record, input.field).trim
+          try value.toDouble catch {
+            case _: NumberFormatException =>
+              throw new IllegalArgumentException(s"Value '$value' for ${input.field} is not a number")
+          }
+      }
+      i += 1
+    }
+  }
+
+  private def required(record: String => Option[String], field: String): String =
+    record(field).getOrElse(throw new IllegalArgumentException(s"Missing value for $field"))
+
+  private def argmax(values: Array[Double]): Int = values.indices.maxBy(i => (values(i), -i))
+
+  def save(path: String): Unit = {
+    val out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(path)))
+    try out.writeObject(this) finally out.close()
+  }
+}
+
+object ScoringModel {
+  // The pipeline has to end with a tree classifier on the output of a VectorAssembler, with StringIndexers for the
+  // label and the categorical inputs
+  def fromPipeline(model: PipelineModel): ScoringModel = {
+    val indexers = model.stages.collect { case indexer: StringIndexerModel => indexer }
+    val assembler = model.stages.collect { case assembler: VectorAssembler => assembler }.headOption
+      .getOrElse(throw new IllegalArgumentException("The pipeline has no VectorAssembler"))
+
+    val (labelCol, forest) = model.stages.collect {
+      case forest: RandomForestClassificationModel => (forest.getLabelCol, CompiledForest.compile(forest))
+      case tree: DecisionTreeClassificationModel => (tree.getLabelCol, CompiledForest.compile(tree))
+    }.headOption.getOrElse(throw new IllegalArgumentException("The pipeline has no tree classifier"))
+
+    val inputs: Array[FeatureInput] = assembler.getInputCols.map { column =>
+      indexers.find(_.getOutputCol == column) match {
+        case Some(indexer) => CategoricalInput(indexer.getInputCol, indexer.labels, indexer.getHandleInvalid == "keep")
+        case None => ContinuousInput(column)
+      }
+    }
+    val labels = indexers.find(_.getOutputCol == labelCol).map(_.labels)
+      .getOrElse((0 until forest.numClasses).map(_.toString).toArray)
+
+    new ScoringModel(inputs, labels, forest)
+  }
+
+  def load(path: String): ScoringModel = {
+    val in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path)))
+    try in.readObject().asInstanceOf[ScoringModel] finally in.close()
+  }
+}
@@ -0,0 +1,133 @@
+package org.finra.ezmachinelearning.helpers
+
+import java.net.{InetAddress, InetSocketAddress}
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{ExecutorService, Executors}
+
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+
+import scala.collection.JavaConverters._
+
+// Serves a ScoringModel over HTTP on the loopback interface, with no SparkSession.
+//
+// POST /score takes a JSON object of field name to raw value, or an array of them scored as one batch, and answers
+// with [{"label": ..., "probability": [...]}, ...] in the same order. GET /metrics answers with the number of
+// requests and records, p50 and p99 latency of the requests and records scored per second since the server started.
+class ScoringServer(model: ScoringModel, port: Int = 0, threads: Int = 4) {
+  private val mapper = new ObjectMapper()
+  private val server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress, port), 0)
+  val metrics = new ScoringMetrics
+
+  server.setExecutor(Executors.newFixedThreadPool(threads))
+
+  server.createContext("/score", new HttpHandler {
+    override def handle(exchange: HttpExchange): Unit = respond(exchange) {
+      if (exchange.getRequestMethod != "POST") {
+        throw new IllegalArgumentException("Records have to be POSTed")
+      }
+      val start = System.nanoTime()
+      val body = mapper.readTree(exchange.getRequestBody)
+      val records = if (body.isArray) body.elements().asScala.toSeq else Seq(body)
+
+      val predictions = model.score(records.map(record => (field: String) => text(record, field)))
+
+      val response = mapper.createArrayNode()
+      for (prediction <- predictions) {
+        val node = response.addObject()
+        node.put("label", prediction.label)
+        val probability = node.putArray("probability")
+        prediction.probability.foreach(p => probability.add(p))
+      }
+      metrics.record(records.size, System.nanoTime() - start)
+      response
+    }
+  })
+
+  server.createContext("/metrics", new HttpHandler {
+    override def handle(exchange: HttpExchange): Unit = respond(exchange) {
+      metrics.toJson(mapper.createObjectNode())
+    }
+  })
+
+  def start(): ScoringServer = {
+    server.start()
+    this
+  }
+
+  def stop(): Unit = {
+    server.stop(0)
+    server.getExecutor.asInstanceOf[ExecutorService].shutdownNow()
+  }
+
+  def address: InetSocketAddress = server.getAddress
+
+  private def text(record: JsonNode, field: String): Option[String] =
+    Option(record.get(field)).filterNot(_.isNull).map(_.asText())
+
+  // Invalid records are the client's fault, anything else is ours
+  private def respond(exchange: HttpExchange)(body: => JsonNode): Unit = {
+    val (status, json) =
+      try {
+        (200, body)
+      } catch {
+        case e: IllegalArgumentException => (400, error(e))
+        case e: com.fasterxml.jackson.core.JsonProcessingException => (400, error(e))
+        case e: Exception => (500, error(e))
+      }
+
+    val bytes = mapper.writeValueAsString(json).getBytes(StandardCharsets.UTF_8)
+    exchange.getResponseHeaders.set("Content-Type", "application/json")
+    exchange.sendResponseHeaders(status, bytes.length)
+    val out = exchange.getResponseBody
+    try out.write(bytes) finally exchange.close()
+  }
+
+  private def error(e: Exception): JsonNode = mapper.createObjectNode().put("error", String.valueOf(e.getMessage))
+}
+
+// Latency of the most recent requests, kept in a ring so percentiles follow the current load, and the total number of
+// requests and records
+class ScoringMetrics(window: Int = 8192) {
+  private val startNanos = System.nanoTime()
+  private val latencies = new Array[Long](window)
+  private var requests = 0L
+  private var records = 0L
+
+  def record(batchSize: Int, nanos: Long): Unit = synchronized {
+    latencies((requests % window).toInt) = nanos
+    requests += 1
+    records += batchSize
+  }
+
+  def requestCount: Long = synchronized(requests)
+
+  def recordCount: Long = synchronized(records)
+
+  // Nearest rank over the latencies in the window, in milliseconds
+  def percentileMillis(percentile: Double): Double = {
+    val sorted = synchronized(latencies.take(math.min(requests, window.toLong).toInt)).sorted
+    if (sorted.isEmpty) {
+      0
+    } else {
+      val rank = math.max(1, math.ceil(percentile / 100.0 * sorted.length).toInt)
+      sorted(rank - 1) / 1e6
+    }
+  }
+
+  def recordsPerSecond: Double = recordCount * 1e9 / math.max(1, System.nanoTime() - startNanos)
+
+  def toJson(node: ObjectNode): ObjectNode = {
+    node.put("requests", requestCount)
+    node.put("records", recordCount)
+    node.put("p50Ms", percentileMillis(50))
+    node.put("p99Ms", percentileMillis(99))
+    node.put("recordsPerSec", recordsPerSecond)
+    node
+  }
+
+  override def toString: String =
+    f"$requestCount%d requests, $recordCount%d records, p50 ${percentileMillis(50)}%.3f ms, " +
+      f"p99 ${percentileMillis(99)}%.3f ms, $recordsPerSecond%.1f records/s"
+}
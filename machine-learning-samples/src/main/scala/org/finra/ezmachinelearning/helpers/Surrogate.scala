@@ -0,0 +1,34 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.classification.DecisionTreeClassifier
+import org.apache.spark.ml.param.ParamMap
+import org.apache.spark.ml.{Pipeline, PipelineModel}
+import org.apache.spark.sql.DataFrame
+
+// A surrogate decision tree trained on the output of its teacher pipeline: it learns the teacher's prediction from the
+// teacher's own feature vector and writes its results to surrogate* columns. The fitted model runs the teacher and
+// then the surrogate over the same rows, so both predictions sit on one row and comparing them needs no join and no
+// shuffle.
+object Surrogate {
+  val PredictionCol = "surrogatePrediction"
+  val RawPredictionCol = "surrogateRawPrediction"
+  val ProbabilityCol = "surrogateProbability"
+
+  def fit(teacher: PipelineModel, surrogate: DecisionTreeClassifier, trainingData: DataFrame,
+          teacherPredictionCol: String = "prediction"): PipelineModel = {
+    // Configured on a copy, the caller's classifier keeps its own columns
+    val configured = surrogate.copy(ParamMap.empty)
+      .setLabelCol(teacherPredictionCol)
+      .setPredictionCol(PredictionCol)
+      .setRawPredictionCol(RawPredictionCol)
+      .setProbabilityCol(ProbabilityCol)
+
+    new Pipeline().setStages(Array(teacher, configured)).fit(trainingData)
+  }
+
+  // Scores data with the teacher and the surrogate of a model from fit and measures their agreement in a single
+  // aggregation
+  def fidelity(model: PipelineModel, data: DataFrame, numClasses: Int,
+               teacherPredictionCol: String = "prediction"): SurrogateFidelity =
+    SurrogateFidelity.evaluate(model.transform(data), teacherPredictionCol, PredictionCol, numClasses)
+}
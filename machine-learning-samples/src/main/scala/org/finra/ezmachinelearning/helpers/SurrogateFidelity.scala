@@ -0,0 +1,68 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.mllib.linalg.{Matrices, Matrix}
+import org.apache.spark.sql.{Column, DataFrame, functions}
+
+// How faithfully a surrogate model reproduces the predictions of the model it explains. rSquared treats the teacher's
+// prediction as the target, agreement is the share of rows where both predict the same class, confusionMatrix has the
+// teacher's classes as rows and the surrogate's as columns, like MulticlassMetrics, and classFidelity is the agreement
+// within each of the teacher's classes.
+//
+// A measure without data is NaN on purpose rather than a made-up score: agreement over no rows, classFidelity of a
+// class the teacher never predicts, and rSquared when the teacher predicts a single class the surrogate does not always
+// match, as the teacher's predictions then have no variance to explain. A surrogate that matches the teacher on every
+// row has an rSquared of 1, even for a single-class teacher.
+case class SurrogateFidelity(count: Long,
+                             rSquared: Double,
+                             agreement: Double,
+                             confusionMatrix: Matrix,
+                             classFidelity: Array[Double]) {
+  override def toString: String =
+    s"R-squared of the surrogate's predictions: $rSquared\n" +
+      s"Agreement with the teacher: $agreement over $count rows\n" +
+      s"Agreement per teacher class: ${classFidelity.mkString(", ")}\n" +
+      s"Confusion matrix (teacher rows, surrogate columns):\n $confusionMatrix\n"
+}
+
+object SurrogateFidelity {
+  // All measures come from one aggregation over native expressions; the predictions are class indexes 0 until
+  // numClasses
+  def evaluate(predictions: DataFrame, teacherCol: String, surrogateCol: String, numClasses: Int): SurrogateFidelity = {
+    val teacher = functions.col(teacherCol).cast("double")
+    val surrogate = functions.col(surrogateCol).cast("double")
+
+    val cells: Seq[Column] = for (i <- 0 until numClasses; j <- 0 until numClasses)
+      yield functions.sum(functions.when(teacher === i && surrogate === j, 1L).otherwise(0L))
+
+    val row = predictions.agg(
+      functions.count(functions.lit(1)),
+      Seq(
+        functions.sum(teacher),
+        functions.sum(teacher * teacher),
+        functions.sum((surrogate - teacher) * (surrogate - teacher))) ++ cells: _*).first()
+
+    val count = row.getLong(0)
+    val (sum, sumOfSquares, sse) = if (count == 0) (0.0, 0.0, 0.0) else (row.getDouble(1), row.getDouble(2), row.getDouble(3))
+    val sst = sumOfSquares - sum * sum / count
+
+    val confusion = Array.tabulate(numClasses, numClasses)((i, j) => if (count == 0) 0L else row.getLong(4 + i * numClasses + j))
+    val agreed = (0 until numClasses).map(i => confusion(i)(i)).sum
+
+    val rSquared =
+      if (count == 0) Double.NaN
+      else if (sse == 0) 1.0
+      else if (sst == 0) Double.NaN
+      else 1 - sse / sst
+
+    SurrogateFidelity(
+      count,
+      rSquared,
+      if (count == 0) Double.NaN else agreed.toDouble / count,
+      // Matrices are column-major
+      Matrices.dense(numClasses, numClasses, Array.tabulate(numClasses * numClasses)(k =>
+        confusion(k % numClasses)(k / numClasses).toDouble)),
+      confusion.zipWithIndex.map { case (teacherRow, i) =>
+        if (teacherRow.sum == 0) Double.NaN else teacherRow(i).toDouble / teacherRow.sum
+      })
+  }
+}
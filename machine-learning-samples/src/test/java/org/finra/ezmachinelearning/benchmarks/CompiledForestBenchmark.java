@@ -0,0 +1,83 @@
+package org.finra.ezmachinelearning.benchmarks;
+
+import org.apache.spark.ml.linalg.Vector;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.finra.ezmachinelearning.helpers.CensusForest;
+import org.finra.ezmachinelearning.helpers.CensusForestFixture;
+import org.finra.ezmachinelearning.helpers.CompiledForest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-row scoring of the census random forest: the compiled flat-array forest against transforming a one-row
+ * DataFrame with the Spark pipeline. Written in Java, since the JMH annotation processor does not run over Scala
+ * sources. Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompiledForestBenchmark {
+  @Param({"50"})
+  public int numTrees;
+
+  @Param({"10"})
+  public int maxDepth;
+
+  private CensusForest census;
+  private CompiledForest compiled;
+  private double[][] features;
+  private double[] probability;
+  private List<Row> testRows;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    census = CensusForestFixture.train(numTrees, maxDepth);
+    compiled = CompiledForest.compile(census.forest());
+    probability = new double[compiled.numClasses()];
+
+    List<Row> rows = census.scored().select("features").limit(1000).collectAsList();
+    features = new double[rows.size()][];
+    for (int i = 0; i < features.length; i++) {
+      features[i] = ((Vector) rows.get(i).get(0)).toArray();
+    }
+    testRows = census.testData().limit(1000).collectAsList();
+  }
+
+  @Benchmark
+  public double compiledPredict() {
+    next = (next + 1) % features.length;
+    return compiled.predict(features[next]);
+  }
+
+  @Benchmark
+  public double[] compiledProbability() {
+    next = (next + 1) % features.length;
+    compiled.probability(features[next], probability);
+    return probability;
+  }
+
+  @Benchmark
+  public double sparkTransformOneRow() {
+    next = (next + 1) % testRows.size();
+    Dataset<Row> oneRow = census.testData().sparkSession()
+        .createDataFrame(Collections.singletonList(testRows.get(next)), census.testData().schema());
+    return census.model().transform(oneRow).select("prediction").first().getDouble(0);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(CompiledForestBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
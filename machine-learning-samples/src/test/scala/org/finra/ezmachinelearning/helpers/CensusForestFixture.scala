@@ -0,0 +1,59 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.classification.{RandomForestClassificationModel, RandomForestClassifier}
+import org.apache.spark.ml.feature.{StringIndexer, VectorAssembler}
+import org.apache.spark.ml.{Pipeline, PipelineModel}
+import org.apache.spark.sql.DataFrame
+
+case class CensusForest(model: PipelineModel, forest: RandomForestClassificationModel, testData: DataFrame,
+                        scored: DataFrame)
+
+// The census random forest of RFCensusIncomeExample, smaller so that tests and benchmarks train it quickly. testData is
+// adult.test as loaded, scored is adult.test run through the pipeline, with the features vector and Spark's probability and prediction.
+object CensusForestFixture {
+  val fields = Seq(
+    "age",
+    "workclass",
+    "fnlwgt",
+    "education",
+    "education-num",
+    "marital-status",
+    "occupation",
+    "relationship",
+    "race",
+    "sex",
+    "capital-gain",
+    "capital-loss",
+    "hours-per-week",
+    "native-country"
+  )
+  val categoricalFieldIndexes = Seq(1, 3, 5, 6, 7, 8, 9, 13)
+  val continuousFieldIndexes = Seq(0, 2, 4, 10, 11, 12)
+
+  def train(numTrees: Int, maxDepth: Int): CensusForest = {
+    val trainingData = CommonFunctions.cachedCensusData("src/main/resources/adult.data", fields, continuousFieldIndexes)
+    val testData = CommonFunctions.cachedCensusData("src/main/resources/adult.test", fields, continuousFieldIndexes)
+
+    // Unseen categories of the test data are kept, they go down the right side of categorical splits in Spark
+    val indexers = categoricalFieldIndexes.map(i =>
+      new StringIndexer().setInputCol(fields(i)).setOutputCol(fields(i) + "Indexed").setHandleInvalid("keep"))
+
+    val pipeline = new Pipeline().setStages((Seq(
+      new StringIndexer().setInputCol("label").setOutputCol("indexedLabel")) ++
+      indexers ++ Seq(
+      new VectorAssembler()
+        .setInputCols((categoricalFieldIndexes.map(i => fields(i) + "Indexed") ++ continuousFieldIndexes.map(fields)).toArray)
+        .setOutputCol("features"),
+      new RandomForestClassifier()
+        .setLabelCol("indexedLabel")
+        .setFeaturesCol("features")
+        .setNumTrees(numTrees)
+        .setMaxBins(100)
+        .setMaxDepth(maxDepth)
+        .setSeed(1))).toArray)
+
+    val model = pipeline.fit(trainingData)
+    CensusForest(model, model.stages.last.asInstanceOf[RandomForestClassificationModel], testData,
+      model.transform(testData))
+  }
+}
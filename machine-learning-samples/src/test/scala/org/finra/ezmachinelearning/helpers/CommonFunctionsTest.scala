@@ -0,0 +1,95 @@
+package org.finra.ezmachinelearning.helpers
+
+import java.io.File
+import java.nio.file.{Files, Paths}
+
+import org.apache.spark.sql.types.DoubleType
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+
+import scala.concurrent.duration.Duration
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.{Await, Future}
+
+class CommonFunctionsTest extends SparkFunSuite {
+
+  private val fields = Seq(
+    "age",
+    "workclass",
+    "fnlwgt",
+    "education",
+    "education-num",
+    "marital-status",
+    "occupation",
+    "relationship",
+    "race",
+    "sex",
+    "capital-gain",
+    "capital-loss",
+    "hours-per-week",
+    "native-country"
+  )
+  private val continuousFieldIndexes = Seq(0, 2, 4, 10, 11, 12)
+
+  // Each test gets an empty cache of its own, whatever earlier runs left in the output directory
+  private def freshCacheDir(): String =
+    Files.createTempDirectory(Files.createDirectories(Paths.get(outputDirectory)), "dataset-cache").toString
+
+  test("loadCensusData types the columns and drops rows with missing values") {
+    val data = CommonFunctions.loadCensusData(getTestResourcePath("census-sample.data"), fields, continuousFieldIndexes)
+
+    assert(data.columns.toSeq == fields :+ "label")
+    assert(data.schema("age").dataType == DoubleType)
+
+    val rows = data.collect()
+    assert(rows.length == 2)
+    assert(rows.map(_.getAs[String]("workclass")).toSet == Set("State-gov", "Local-gov"))
+    assert(rows.map(_.getAs[String]("label")).toSet == Set("<=50K", ">50K"))
+  }
+
+  test("formatData formats like loadCensusData but keeps rows with missing values") {
+    val path = getTestResourcePath("census-sample.data")
+    val formatted = CommonFunctions.formatData(spark.read.format("csv").load(path), fields, continuousFieldIndexes)
+    val loaded = CommonFunctions.loadCensusData(path, fields, continuousFieldIndexes)
+
+    assert(formatted.schema == loaded.schema)
+    assert(formatted.except(loaded).count() == 1)
+    assert(loaded.except(formatted).count() == 0)
+  }
+
+  test("cachedCensusData writes the formatted data once and reads it back from Parquet") {
+    val path = getTestResourcePath("census-sample.data")
+    val cacheDir = freshCacheDir()
+
+    val first = CommonFunctions.cachedCensusData(path, fields, continuousFieldIndexes, cacheDir)
+    val entries = new File(cacheDir).list()
+    val second = CommonFunctions.cachedCensusData(path, fields, continuousFieldIndexes, cacheDir)
+
+    assert(entries.length == 1)
+    assert(new File(cacheDir).list().toSeq == entries.toSeq)
+    assert(second.inputFiles.forall(_.endsWith(".parquet")))
+    assert(second.schema == CommonFunctions.loadCensusData(path, fields, continuousFieldIndexes).schema)
+    assert(second.collect().toSet == first.collect().toSet)
+  }
+
+  test("cachedCensusData keys the cache by field layout") {
+    val path = getTestResourcePath("census-sample.data")
+    val cacheDir = freshCacheDir()
+
+    CommonFunctions.cachedCensusData(path, fields, continuousFieldIndexes, cacheDir)
+    CommonFunctions.cachedCensusData(path, fields, continuousFieldIndexes.tail, cacheDir)
+
+    assert(new File(cacheDir).list().length == 2)
+  }
+
+  test("cachedCensusData lets concurrent callers share one cache entry") {
+    val path = getTestResourcePath("census-sample.data")
+    val cacheDir = freshCacheDir()
+    val expected = CommonFunctions.loadCensusData(path, fields, continuousFieldIndexes).collect().toSet
+
+    val loads = Seq.fill(4)(Future(CommonFunctions.cachedCensusData(path, fields, continuousFieldIndexes, cacheDir)))
+    val results = Await.result(Future.sequence(loads), Duration.Inf)
+
+    assert(new File(cacheDir).list().toSeq.size == 1)
+    assert(results.forall(_.collect().toSet == expected))
+  }
+}
@@ -0,0 +1,37 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.classification.DecisionTreeClassificationModel
+import org.apache.spark.ml.linalg.Vector
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+
+class CompiledForestTest extends SparkFunSuite {
+
+  private lazy val census = CensusForestFixture.train(numTrees = 10, maxDepth = 8)
+
+  private lazy val rows = census.scored.select("features", "probability", "prediction").collect()
+    .map(row => (row.getAs[Vector](0).toArray, row.getAs[Vector](1).toArray, row.getDouble(2)))
+
+  test("compiled forest matches Spark on adult.test") {
+    val compiled = CompiledForest.compile(census.forest)
+    val probability = new Array[Double](compiled.numClasses)
+
+    assert(compiled.numTrees == 10)
+    assert(compiled.numNodes == census.forest.totalNumNodes)
+    for ((features, expected, prediction) <- rows) {
+      compiled.probability(features, probability)
+      assert(probability.zip(expected).forall { case (a, b) => math.abs(a - b) < 1e-12 })
+      assert(compiled.predict(features) == prediction)
+    }
+  }
+
+  test("compiled tree matches Spark on adult.test") {
+    val tree: DecisionTreeClassificationModel = census.forest.trees.head
+    val compiled = CompiledForest.compile(tree)
+    val predictions = tree.transform(census.scored.select("features")).select("prediction").collect().map(_.getDouble(0))
+
+    assert(compiled.numTrees == 1)
+    for (((features, _, _), prediction) <- rows.zip(predictions)) {
+      assert(compiled.predict(features) == prediction)
+    }
+  }
+}
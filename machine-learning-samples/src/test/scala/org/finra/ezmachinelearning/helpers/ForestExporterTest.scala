@@ -0,0 +1,146 @@
+package org.finra.ezmachinelearning.helpers
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream}
+
+import net.liftweb.json._
+import org.apache.spark.ml.classification.{DecisionTreeClassifier, RandomForestClassificationModel, RandomForestClassifier}
+import org.apache.spark.ml.feature.{VectorAssembler, VectorIndexer}
+import org.apache.spark.ml.tree._
+import org.apache.spark.sql.DataFrame
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+import org.finra.ezmachinelearning.helpers.Implicits._
+
+class ForestExporterTest extends SparkFunSuite {
+
+  import sqlImplicits._
+
+  private lazy val data: DataFrame = new VectorAssembler()
+    .setInputCols(Array("x", "y"))
+    .setOutputCol("features")
+    .transform((0 until 200).map(i => (i % 7.0, i % 11.0, if ((i % 7) * (i % 11) > 20) 1.0 else 0.0)).toDF("x", "y", "label"))
+
+  private lazy val forest: RandomForestClassificationModel = new RandomForestClassifier()
+    .setNumTrees(8)
+    .setMaxDepth(5)
+    .setSeed(1)
+    .fit(data)
+
+  // x has 7 values and becomes categorical, y has 11 and stays continuous
+  private lazy val mixedForest: RandomForestClassificationModel = new RandomForestClassifier()
+    .setFeaturesCol("indexedFeatures")
+    .setNumTrees(8)
+    .setMaxDepth(5)
+    .setSeed(1)
+    .fit(new VectorIndexer().setInputCol("features").setOutputCol("indexedFeatures").setMaxCategories(8).fit(data)
+      .transform(data))
+
+  // A node as read back from the binary format, without the model
+  private case class DecodedNode(kind: Byte, prediction: Double, impurity: Double, featureIndex: Int, gain: Double,
+                                 threshold: Double, numCategories: Int, leftCategories: Seq[Double],
+                                 children: Seq[DecodedNode])
+
+  private def decodeForest(encoded: Array[Byte]): Seq[(Double, DecodedNode)] = {
+    val in = new DataInputStream(new ByteArrayInputStream(encoded))
+    assert(in.readInt() == ForestExporter.BinaryMagic)
+    assert(in.readInt() == ForestExporter.BinaryVersion)
+    val trees = Seq.fill(in.readInt())((in.readDouble(), decodeNode(in)))
+    assert(in.read() == -1)
+    trees
+  }
+
+  // Nodes are in pre-order, so a split is followed by its whole left subtree and then its right one
+  private def decodeNode(in: DataInputStream): DecodedNode = {
+    val kind = in.readByte()
+    val prediction = in.readDouble()
+    val impurity = in.readDouble()
+    kind match {
+      case ForestExporter.BinaryLeaf =>
+        DecodedNode(kind, prediction, impurity, -1, Double.NaN, Double.NaN, -1, Nil, Nil)
+      case ForestExporter.BinaryContinuousSplit | ForestExporter.BinaryCategoricalSplit =>
+        val featureIndex = in.readInt()
+        val gain = in.readDouble()
+        val (threshold, numCategories, leftCategories) =
+          if (kind == ForestExporter.BinaryContinuousSplit) {
+            (in.readDouble(), -1, Nil)
+          } else {
+            val numCategories = in.readInt()
+            (Double.NaN, numCategories, Seq.fill(in.readInt())(in.readDouble()))
+          }
+        val left = decodeNode(in)
+        val right = decodeNode(in)
+        DecodedNode(kind, prediction, impurity, featureIndex, gain, threshold, numCategories, leftCategories,
+          Seq(left, right))
+    }
+  }
+
+  private def assertSameNode(decoded: DecodedNode, node: Node): Unit = {
+    assert(decoded.prediction == node.prediction)
+    assert(decoded.impurity == node.impurity)
+    node match {
+      case internal: InternalNode =>
+        assert(decoded.featureIndex == internal.split.featureIndex)
+        assert(decoded.gain == internal.gain)
+        internal.split match {
+          case continuous: ContinuousSplit =>
+            assert(decoded.kind == ForestExporter.BinaryContinuousSplit)
+            assert(decoded.threshold == continuous.threshold)
+          case categorical: CategoricalSplit =>
+            assert(decoded.kind == ForestExporter.BinaryCategoricalSplit)
+            assert(decoded.numCategories == categorical.numCategories)
+            assert(decoded.leftCategories == categorical.leftCategories.toSeq)
+        }
+        assertSameNode(decoded.children.head, internal.leftChild)
+        assertSameNode(decoded.children(1), internal.rightChild)
+      case _ =>
+        assert(decoded.kind == ForestExporter.BinaryLeaf)
+    }
+  }
+
+  private def kinds(node: DecodedNode): Seq[Byte] = node.kind +: node.children.flatMap(kinds)
+
+  private def bytes(write: ByteArrayOutputStream => Unit): Array[Byte] = {
+    val out = new ByteArrayOutputStream()
+    write(out)
+    out.toByteArray
+  }
+
+  test("writeJson of a tree matches toJsonPlotFormat") {
+    val tree = new DecisionTreeClassifier().setMaxDepth(5).fit(data)
+
+    val streamed = parse(new String(bytes(ForestExporter.writeJson(tree, _)), "UTF-8"))
+
+    assert(streamed == parse(tree.toJsonPlotFormat()))
+  }
+
+  test("writeJson covers every tree of the forest") {
+    val json = parse(new String(bytes(ForestExporter.writeJson(forest, _)), "UTF-8"))
+
+    val trees = (json \ "trees").children
+    assert((json \ "numTrees") == JInt(8))
+    assert(trees.size == 8)
+    for ((tree, i) <- trees.zipWithIndex) {
+      assert((tree \ "rootNode") == parse(forest.trees(i).toJsonPlotFormat()))
+    }
+  }
+
+  test("parallel export writes the same bytes in the same order") {
+    assert(bytes(ForestExporter.writeJson(forest, _, 3)) sameElements bytes(ForestExporter.writeJson(forest, _)))
+    assert(bytes(ForestExporter.writeBinary(forest, _, 3)) sameElements bytes(ForestExporter.writeBinary(forest, _)))
+  }
+
+  test("writeBinary decodes back to every node of every tree") {
+    for (model <- Seq(forest, mixedForest); parallelism <- Seq(1, 3)) {
+      val decoded = decodeForest(bytes(ForestExporter.writeBinary(model, _, parallelism)))
+
+      assert(decoded.size == model.trees.length)
+      for (((weight, root), i) <- decoded.zipWithIndex) {
+        assert(weight == model.treeWeights(i))
+        assertSameNode(root, model.trees(i).rootNode)
+      }
+    }
+
+    val mixedKinds = decodeForest(bytes(ForestExporter.writeBinary(mixedForest, _))).flatMap(tree => kinds(tree._2))
+    assert(mixedKinds.contains(ForestExporter.BinaryCategoricalSplit))
+    assert(mixedKinds.contains(ForestExporter.BinaryContinuousSplit))
+  }
+}
@@ -0,0 +1,79 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.classification.LogisticRegression
+import org.apache.spark.ml.feature.{StringIndexer, VectorAssembler}
+import org.apache.spark.ml.linalg.Vector
+import org.apache.spark.ml.{Pipeline, PipelineModel}
+import org.apache.spark.sql.types.DoubleType
+import org.apache.spark.sql.{DataFrame, functions}
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+
+class PartialDependenceTest extends SparkFunSuite {
+
+  import sqlImplicits._
+
+  private lazy val data: DataFrame = Seq(
+    ("a", 1.0, 0.0),
+    ("a", 2.0, 0.0),
+    ("b", 3.0, 0.0),
+    ("b", 4.0, 1.0),
+    ("c", 5.0, 1.0),
+    ("c", 12.0, 1.0)
+  ).toDF("color", "size", "indexedLabel")
+
+  private lazy val model: PipelineModel = new Pipeline()
+    .setStages(Array(
+      new StringIndexer().setInputCol("color").setOutputCol("colorIndexed"),
+      new VectorAssembler().setInputCols(Array("colorIndexed", "size")).setOutputCol("features"),
+      new LogisticRegression().setLabelCol("indexedLabel").setFeaturesCol("features")))
+    .fit(data)
+
+  // Average score per value from one transform per value, the way partial dependence used to be computed
+  private def scoredPerValue(field: String, values: Seq[Any]): Seq[Double] = {
+    val score = functions.udf((probability: Vector) => probability(1))
+    values.map { value =>
+      model.transform(data.withColumn(field, functions.lit(value)))
+        .select(functions.avg(score(functions.col("probability"))))
+        .first().getDouble(0)
+    }
+  }
+
+  test("partialDependence matches scoring the data once per grid value") {
+    val colorGrid = PartialDependence.distinctGrid(data, "color")
+    val sizeGrid = PartialDependence.quantileGrid(data, "size", 2)
+
+    val pdp = PartialDependence.partialDependence(model, data, Seq(colorGrid, sizeGrid)).cache()
+
+    assert(colorGrid.values == Seq("a", "b", "c"))
+    assert(pdp.count() == colorGrid.values.size + sizeGrid.values.size)
+    assert(pdp.select(PartialDependence.RowsCol).as[Long].collect().forall(_ == data.count()))
+
+    for (grid <- Seq(colorGrid, sizeGrid)) {
+      val scores = PartialDependence.forField(pdp, grid.field).select(PartialDependence.ScoreCol).as[Double].collect()
+      scores.zip(scoredPerValue(grid.field, grid.values)).foreach { case (actual, expected) =>
+        assert(math.abs(actual - expected) < 1e-9)
+      }
+    }
+  }
+
+  test("forField gives numeric grid values with the field's type, in numeric order") {
+    val sizeGrid = PartialDependence.quantileGrid(data, "size", 5)
+    val colorGrid = PartialDependence.distinctGrid(data, "color")
+
+    val pdp = PartialDependence.partialDependence(model, data, Seq(colorGrid, sizeGrid))
+    val sizes = PartialDependence.forField(pdp, "size")
+
+    assert(sizes.schema("size").dataType == DoubleType)
+    // 12.0 sorts before 2.0 as text
+    assert(sizes.select("size").as[Double].collect().toSeq == sizeGrid.values)
+    assert(sizes.orderBy("size").select("size").as[Double].collect().toSeq == sizeGrid.values)
+    assert(PartialDependence.forField(pdp, "color").select("color").as[String].collect().toSeq == colorGrid.values)
+  }
+
+  test("iceData keeps one curve per row and feature") {
+    val ice = PartialDependence.iceData(model, data, Seq(PartialDependence.distinctGrid(data, "color")))
+
+    assert(ice.count() == data.count() * 3)
+    assert(ice.groupBy(PartialDependence.RowIdCol).count().where("count != 3").count() == 0)
+  }
+}
@@ -0,0 +1,87 @@
+package org.finra.ezmachinelearning.helpers
+
+import java.io.File
+import java.net.{HttpURLConnection, URL}
+import java.nio.charset.StandardCharsets
+
+import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
+import org.apache.spark.ml.linalg.Vector
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+
+import scala.collection.JavaConverters._
+import scala.io.Source
+
+class ScoringServerTest extends SparkFunSuite {
+
+  private val mapper = new ObjectMapper()
+
+  private lazy val census = CensusForestFixture.train(numTrees = 10, maxDepth = 8)
+
+  // Saved and loaded again, the way the service gets it
+  private lazy val model: ScoringModel = {
+    val file = new File(outputDirectory, "census-scoring.model")
+    file.getParentFile.mkdirs()
+    ScoringModel.fromPipeline(census.model).save(file.getPath)
+    ScoringModel.load(file.getPath)
+  }
+
+  private def request(server: ScoringServer, path: String, body: Option[String] = None): (Int, JsonNode) = {
+    val connection = new URL(s"http://localhost:${server.address.getPort}$path").openConnection()
+      .asInstanceOf[HttpURLConnection]
+    body.foreach { json =>
+      connection.setRequestMethod("POST")
+      connection.setDoOutput(true)
+      connection.getOutputStream.write(json.getBytes(StandardCharsets.UTF_8))
+    }
+    val status = connection.getResponseCode
+    val in = if (status < 400) connection.getInputStream else connection.getErrorStream
+    try {
+      (status, mapper.readTree(Source.fromInputStream(in, "UTF-8").mkString))
+    } finally {
+      in.close()
+    }
+  }
+
+  test("scores batches of raw census records like the Spark pipeline") {
+    val rows = census.scored.limit(200).collect()
+    val records = rows.map { row =>
+      val record = mapper.createObjectNode()
+      model.fields.foreach(field => record.put(field, String.valueOf(row.getAs[Any](field))))
+      record
+    }
+
+    val server = new ScoringServer(model).start()
+    try {
+      val predictions = records.grouped(50).flatMap { batch =>
+        val (status, response) = request(server, "/score", Some(mapper.writeValueAsString(batch.toSeq.asJava)))
+        assert(status == 200)
+        response.elements().asScala
+      }.toSeq
+
+      assert(predictions.size == rows.length)
+      for ((prediction, row) <- predictions.zip(rows)) {
+        assert(prediction.get("label").asText() == model.labels(row.getAs[Double]("prediction").toInt))
+        val probability = prediction.get("probability").elements().asScala.map(_.asDouble()).toSeq
+        assert(probability.zip(row.getAs[Vector]("probability").toArray).forall { case (a, b) => math.abs(a - b) < 1e-9 })
+      }
+
+      val (_, metrics) = request(server, "/metrics")
+      assert(metrics.get("requests").asLong() == 4)
+      assert(metrics.get("records").asLong() == rows.length)
+      assert(metrics.get("p99Ms").asDouble() >= metrics.get("p50Ms").asDouble())
+    } finally {
+      server.stop()
+    }
+  }
+
+  test("rejects records with missing or invalid values") {
+    val server = new ScoringServer(model).start()
+    try {
+      val (status, response) = request(server, "/score", Some("""{"age": "old"}"""))
+      assert(status == 400)
+      assert(response.has("error"))
+    } finally {
+      server.stop()
+    }
+  }
+}
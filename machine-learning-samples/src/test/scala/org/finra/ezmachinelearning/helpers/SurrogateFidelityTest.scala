@@ -0,0 +1,68 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+
+class SurrogateFidelityTest extends SparkFunSuite {
+
+  import sqlImplicits._
+
+  test("evaluate computes fidelity measures against the teacher") {
+    val predictions = Seq(
+      (0.0, 0.0),
+      (0.0, 0.0),
+      (0.0, 1.0),
+      (1.0, 1.0),
+      (1.0, 0.0),
+      (1.0, 1.0),
+      (1.0, 1.0),
+      (0.0, 0.0)
+    ).toDF("teacher", "surrogate")
+
+    val fidelity = SurrogateFidelity.evaluate(predictions, "teacher", "surrogate", 2)
+
+    // 4 teacher ones out of 8: SST = 8 * 0.25 = 2, SSE = 2 disagreements
+    assert(fidelity.count == 8)
+    assert(fidelity.rSquared == 0.0)
+    assert(fidelity.agreement == 0.75)
+    assert(fidelity.confusionMatrix.toArray.toSeq == Seq(3.0, 1.0, 1.0, 3.0))
+    assert(fidelity.confusionMatrix(0, 1) == 1.0)
+    assert(fidelity.classFidelity.toSeq == Seq(0.75, 0.75))
+  }
+
+  test("evaluate reports perfect fidelity for identical predictions") {
+    val predictions = Seq((0.0, 0.0), (1.0, 1.0), (2.0, 2.0), (2.0, 2.0)).toDF("teacher", "surrogate")
+
+    val fidelity = SurrogateFidelity.evaluate(predictions, "teacher", "surrogate", 3)
+
+    assert(fidelity.rSquared == 1.0)
+    assert(fidelity.agreement == 1.0)
+    assert(fidelity.confusionMatrix(2, 2) == 2.0)
+    assert(fidelity.classFidelity.toSeq == Seq(1.0, 1.0, 1.0))
+  }
+
+  test("evaluate leaves undefined measures of a single-class teacher as NaN") {
+    val constant = Seq((1.0, 1.0), (1.0, 0.0), (1.0, 1.0), (1.0, 1.0)).toDF("teacher", "surrogate")
+
+    val fidelity = SurrogateFidelity.evaluate(constant, "teacher", "surrogate", 2)
+
+    // The teacher's predictions have no variance, and it never predicts class 0
+    assert(fidelity.rSquared.isNaN)
+    assert(fidelity.agreement == 0.75)
+    assert(fidelity.classFidelity(0).isNaN)
+    assert(fidelity.classFidelity(1) == 0.75)
+
+    val matched = SurrogateFidelity.evaluate(constant.where("surrogate = 1"), "teacher", "surrogate", 2)
+    assert(matched.rSquared == 1.0)
+    assert(matched.agreement == 1.0)
+  }
+
+  test("evaluate reports no agreement measures for empty predictions") {
+    val fidelity = SurrogateFidelity.evaluate(Seq.empty[(Double, Double)].toDF("teacher", "surrogate"),
+      "teacher", "surrogate", 2)
+
+    assert(fidelity.count == 0)
+    assert(fidelity.rSquared.isNaN)
+    assert(fidelity.agreement.isNaN)
+    assert(fidelity.classFidelity.forall(_.isNaN))
+  }
+}
@@ -0,0 +1,54 @@
+package org.finra.ezmachinelearning.helpers
+
+import org.apache.spark.ml.classification.{DecisionTreeClassifier, RandomForestClassifier}
+import org.apache.spark.ml.feature.{StringIndexer, VectorAssembler}
+import org.apache.spark.ml.{Pipeline, PipelineModel}
+import org.apache.spark.sql.DataFrame
+import org.finra.ezmachinelearning.basetestclasses.SparkFunSuite
+
+class SurrogateTest extends SparkFunSuite {
+
+  import sqlImplicits._
+
+  private lazy val data: DataFrame = (0 until 300)
+    .map(i => (i % 13.0, i % 7.0, if ((i % 13) + (i % 7) > 9) "high" else "low"))
+    .toDF("x", "y", "label")
+
+  private lazy val teacher: PipelineModel = new Pipeline()
+    .setStages(Array(
+      new StringIndexer().setInputCol("label").setOutputCol("indexedLabel"),
+      new VectorAssembler().setInputCols(Array("x", "y")).setOutputCol("features"),
+      new RandomForestClassifier().setLabelCol("indexedLabel").setNumTrees(5).setSeed(1)))
+    .fit(data)
+
+  test("the surrogate scores the teacher's output rows without a shuffle") {
+    val model = Surrogate.fit(teacher, new DecisionTreeClassifier().setMaxDepth(3), data)
+    val scored = model.transform(data)
+
+    assert(scored.columns.contains("prediction"))
+    assert(scored.columns.contains(Surrogate.PredictionCol))
+    assert(scored.count() == data.count())
+    assert(!scored.queryExecution.executedPlan.toString.contains("Exchange"))
+  }
+
+  test("fidelity compares teacher and surrogate on the same rows") {
+    val model = Surrogate.fit(teacher, new DecisionTreeClassifier().setMaxDepth(5), data)
+    val fidelity = Surrogate.fidelity(model, data, 2)
+
+    val scored = model.transform(data)
+    val agreed = scored.where(s"prediction = ${Surrogate.PredictionCol}").count()
+
+    assert(fidelity.count == data.count())
+    assert(fidelity.agreement == agreed.toDouble / data.count())
+  }
+
+  test("fit leaves the caller's classifier as it was") {
+    val classifier = new DecisionTreeClassifier().setMaxDepth(3)
+    Surrogate.fit(teacher, classifier, data)
+
+    assert(classifier.getLabelCol == "label")
+    assert(classifier.getPredictionCol == "prediction")
+    assert(classifier.getProbabilityCol == "probability")
+    assert(classifier.getMaxDepth == 3)
+  }
+}
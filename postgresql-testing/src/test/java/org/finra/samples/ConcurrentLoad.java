@@ -0,0 +1,308 @@
+package org.finra.samples;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives one statement from many sessions at once against the same database, the way production traffic hits a
+ * function, to surface row lock waits and deadlocks that independent tests never run into. Every session runs the
+ * statement in its own transaction for {@code -Dpostgres.load.durationMs}; {@code -Dpostgres.load.sessions} sets the
+ * number of sessions and {@code -Dpostgres.load.virtualThreads=true} drives them from virtual threads where the JVM has
+ * them. Meanwhile {@code pg_locks} is sampled every {@code -Dpostgres.load.sampleMs} for sessions waiting on a lock.
+ * The result holds throughput, a latency histogram, the lock waits and the deadlocks seen by the clients and counted
+ * in {@code pg_stat_database}; it is logged and written to {@code load-<name>.json} in the {@link TestReports}
+ * directory.
+ */
+public class ConcurrentLoad {
+  private static Logger LOGGER = LoggerFactory.getLogger(ConcurrentLoad.class);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  private static final String DEADLOCK_DETECTED = "40P01";
+  private static final String SERIALIZATION_FAILURE = "40001";
+
+  // Latencies are counted in power-of-two buckets of microseconds, up to about 35 minutes
+  private static final int BUCKETS = 32;
+
+  private final ConnectionPool pool;
+  private final int sessions;
+  private final long durationMillis;
+  private final long sampleMillis;
+  private final boolean virtualThreads;
+
+  public ConcurrentLoad(ConnectionPool pool, int sessions, long durationMillis, long sampleMillis,
+                        boolean virtualThreads) {
+    this.pool = pool;
+    this.sessions = sessions;
+    this.durationMillis = durationMillis;
+    this.sampleMillis = sampleMillis;
+    this.virtualThreads = virtualThreads;
+  }
+
+  public static int configuredSessions() {
+    return Integer.getInteger("postgres.load.sessions", 8);
+  }
+
+  /**
+   * The pool has to hand out one connection per session plus one for the lock sampler.
+   */
+  public static ConcurrentLoad configured(ConnectionPool pool) {
+    return configured(pool, configuredSessions());
+  }
+
+  public static ConcurrentLoad configured(ConnectionPool pool, int sessions) {
+    return new ConcurrentLoad(pool, sessions,
+        Long.getLong("postgres.load.durationMs", 2000L),
+        Long.getLong("postgres.load.sampleMs", 50L),
+        Boolean.getBoolean("postgres.load.virtualThreads"));
+  }
+
+  public Result run(String name, String sql) throws IOException, SQLException {
+    Result result = new Result(name, sessions);
+
+    // Connections are taken up front so that borrowing them is not part of the measured latencies
+    List<Connection> connections = new ArrayList<>();
+    ExecutorService executor = executor();
+    try {
+      for (int i = 0; i < sessions; i++) {
+        connections.add(pool.getConnection());
+      }
+
+      try (Connection monitor = pool.getConnection()) {
+        long deadlocksBefore = serverDeadlocks(monitor);
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        List<Future<?>> workers = new ArrayList<>();
+        for (Connection conn : connections) {
+          workers.add(executor.submit(() -> {
+            session(conn, sql, deadline, result);
+            return null;
+          }));
+        }
+
+        while (System.nanoTime() < deadline) {
+          sampleLocks(monitor, result);
+          Thread.sleep(sampleMillis);
+        }
+        for (Future<?> worker : workers) {
+          worker.get();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.serverDeadlocks = serverDeadlocks(monitor) - deadlocksBefore;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while running " + name, e);
+    }
+    catch (ExecutionException e) {
+      throw e.getCause() instanceof SQLException
+          ? (SQLException) e.getCause()
+          : new SQLException("Load session of " + name + " failed", e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+      for (Connection conn : connections) {
+        conn.close();
+      }
+    }
+
+    LOGGER.info(result.toString());
+    result.write();
+    return result;
+  }
+
+  private ExecutorService executor() {
+    if (virtualThreads) {
+      try {
+        // Built for Java 8, so virtual threads are looked up instead of called
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException e) {
+        LOGGER.warn("Virtual threads are not available on Java {}, using platform threads",
+            System.getProperty("java.version"));
+      }
+    }
+    return Executors.newFixedThreadPool(sessions);
+  }
+
+  private static void session(Connection conn, String sql, long deadline, Result result) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      while (System.nanoTime() < deadline) {
+        long start = System.nanoTime();
+        try {
+          stmt.executeQuery(sql).close();
+          result.record(System.nanoTime() - start);
+        }
+        catch (SQLException e) {
+          // Postgres already rolled the victim back, the session just carries on
+          if (DEADLOCK_DETECTED.equals(e.getSQLState())) {
+            result.deadlocks.increment();
+          }
+          else if (SERIALIZATION_FAILURE.equals(e.getSQLState())) {
+            result.serializationFailures.increment();
+          }
+          else {
+            throw e;
+          }
+        }
+      }
+    }
+  }
+
+  private static void sampleLocks(Connection conn, Result result) throws SQLException {
+    int waiting = 0;
+    try (Statement stmt = conn.createStatement()) {
+      try (ResultSet rs = stmt.executeQuery(
+          // Row lock waits are on transaction ids, which belong to no database, so waiters are matched by backend
+          "SELECT l.locktype, l.mode, count(*) FROM pg_locks l\n"
+              + "WHERE NOT l.granted\n"
+              + "AND l.pid IN (SELECT pid FROM pg_stat_activity WHERE datname = current_database())\n"
+              + "GROUP BY l.locktype, l.mode")) {
+        while (rs.next()) {
+          result.lockWaits.merge(rs.getString(1) + " " + rs.getString(2), rs.getLong(3), Long::sum);
+          waiting += rs.getInt(3);
+        }
+      }
+    }
+    result.samples++;
+    if (waiting > 0) {
+      result.samplesWithWaits++;
+    }
+    result.maxWaiting = Math.max(result.maxWaiting, waiting);
+  }
+
+  private static long serverDeadlocks(Connection conn) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      // Statistics are cached for the transaction, clear them to see the latest counter
+      stmt.executeQuery("SELECT pg_stat_clear_snapshot()").close();
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT deadlocks FROM pg_stat_database WHERE datname = current_database()")) {
+        return rs.next() ? rs.getLong(1) : 0;
+      }
+    }
+  }
+
+  public static class Result {
+    private final String name;
+    private final int sessions;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder serializationFailures = new LongAdder();
+    private final Map<String, Long> lockWaits = new TreeMap<>();
+    private long elapsedNanos;
+    private long serverDeadlocks;
+    private long samples;
+    private long samplesWithWaits;
+    private int maxWaiting;
+
+    private Result(String name, int sessions) {
+      this.name = name;
+      this.sessions = sessions;
+    }
+
+    private void record(long nanos) {
+      long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+      histogram.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros)));
+      calls.increment();
+    }
+
+    public long calls() {
+      return calls.sum();
+    }
+
+    public long deadlocks() {
+      return deadlocks.sum();
+    }
+
+    public long serverDeadlocks() {
+      return serverDeadlocks;
+    }
+
+    public long serializationFailures() {
+      return serializationFailures.sum();
+    }
+
+    public double callsPerSecond() {
+      return elapsedNanos == 0 ? 0 : calls() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Upper bound of the histogram bucket holding the percentile, in milliseconds.
+     */
+    public double percentileMillis(double percentile) {
+      long rank = (long) Math.ceil(percentile / 100.0 * calls());
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        seen += histogram.get(bucket);
+        if (seen >= rank && seen > 0) {
+          return (2L << bucket) / 1000.0;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Share of the lock samples in which at least one session was waiting.
+     */
+    public double lockWaitRatio() {
+      return samples == 0 ? 0 : (double) samplesWithWaits / samples;
+    }
+
+    public Map<String, Long> lockWaits() {
+      return lockWaits;
+    }
+
+    private void write() throws IOException {
+      ObjectNode node = MAPPER.createObjectNode();
+      node.put("name", name);
+      node.put("sessions", sessions);
+      node.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+      node.put("calls", calls());
+      node.put("callsPerSec", callsPerSecond());
+      node.put("p50Ms", percentileMillis(50));
+      node.put("p90Ms", percentileMillis(90));
+      node.put("p99Ms", percentileMillis(99));
+
+      ObjectNode buckets = node.putObject("latencyHistogramMs");
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        if (histogram.get(bucket) > 0) {
+          buckets.put("<" + (2L << bucket) / 1000.0, histogram.get(bucket));
+        }
+      }
+
+      node.put("deadlocks", deadlocks());
+      node.put("serverDeadlocks", serverDeadlocks);
+      node.put("serializationFailures", serializationFailures());
+      node.put("lockSamples", samples);
+      node.put("lockSamplesWithWaits", samplesWithWaits);
+      node.put("maxWaitingSessions", maxWaiting);
+      ObjectNode waits = node.putObject("lockWaits");
+      lockWaits.forEach(waits::put);
+
+      MAPPER.writeValue(TestReports.file("load-" + name + ".json").toFile(), node);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s with %d sessions: %d calls, %.1f calls/s, p50 <%.2f ms, p90 <%.2f ms, p99 <%.2f ms, "
+              + "%d deadlocks (%d on the server), %d serialization failures, waits in %.0f%% of lock samples "
+              + "(at most %d sessions) %s",
+          name, sessions, calls(), callsPerSecond(), percentileMillis(50), percentileMillis(90),
+          percentileMillis(99), deadlocks(), serverDeadlocks, serializationFailures(), lockWaitRatio() * 100,
+          maxWaiting, lockWaits);
+    }
+  }
+}
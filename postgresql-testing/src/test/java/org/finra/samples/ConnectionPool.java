@@ -0,0 +1,237 @@
+package org.finra.samples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of physical connections to one database. Fixtures borrow a connection with {@link #getConnection()}
+ * and give it back by closing it; the session is reset before the next borrower sees it. At most
+ * {@code -Dpostgres.pool.size} connections are open at a time, further borrowers wait up to
+ * {@code -Dpostgres.pool.timeoutMs}.
+ */
+public class ConnectionPool implements AutoCloseable {
+  private static Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+  private static final int MAX_SIZE = Integer.getInteger("postgres.pool.size", 8);
+  private static final long TIMEOUT_MS = Long.getLong("postgres.pool.timeoutMs", 30000L);
+
+  // Connections idle for less than this are handed out without a round trip to the server
+  private static final long VALIDATION_INTERVAL_MS = 5000L;
+
+  // Undoes everything a test can leave behind in a session, except prepared statements pgjdbc still refers to
+  private static final String RESET_SESSION = "RESET ALL; SET SESSION AUTHORIZATION DEFAULT; CLOSE ALL; "
+      + "UNLISTEN *; SELECT pg_advisory_unlock_all(); DISCARD TEMP";
+
+  private final String url;
+  private final Properties properties;
+  private final Semaphore permits;
+  private final Deque<Idle> idle = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger opened = new AtomicInteger();
+  private final AtomicInteger borrowed = new AtomicInteger();
+
+  private volatile boolean closed;
+
+  public ConnectionPool(String url, Properties properties) {
+    this(url, properties, MAX_SIZE);
+  }
+
+  public ConnectionPool(String url, Properties properties, int maxSize) {
+    this.url = url;
+    this.properties = properties;
+    this.permits = new Semaphore(maxSize, true);
+  }
+
+  public String url() {
+    return url;
+  }
+
+  public Connection getConnection() throws SQLException {
+    try (PhaseTimings.Timing timing = PhaseTimings.time("connection")) {
+      return borrow();
+    }
+  }
+
+  private Connection borrow() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool for " + url + " is closed");
+    }
+
+    try {
+      if (!permits.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        throw new SQLTimeoutException("No connection to " + url + " available after " + TIMEOUT_MS + " ms");
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+    }
+
+    try {
+      Connection physical = take();
+      borrowed.incrementAndGet();
+      return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+          new Class<?>[]{Connection.class}, new Borrowed(physical));
+    }
+    catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    Idle connection;
+    while ((connection = idle.pollFirst()) != null) {
+      closeQuietly(connection.connection);
+    }
+    LOGGER.debug("Closed pool for {}: {} borrows served by {} connections", url, borrowed.get(), opened.get());
+  }
+
+  private Connection take() throws SQLException {
+    Idle connection;
+    while ((connection = idle.pollFirst()) != null) {
+      if (isUsable(connection)) {
+        return connection.connection;
+      }
+      closeQuietly(connection.connection);
+    }
+
+    Connection physical = DriverManager.getConnection(url, properties);
+    opened.incrementAndGet();
+    return physical;
+  }
+
+  private boolean isUsable(Idle connection) {
+    try {
+      if (connection.connection.isClosed()) {
+        return false;
+      }
+      return System.currentTimeMillis() - connection.since < VALIDATION_INTERVAL_MS
+          || connection.connection.isValid(1);
+    }
+    catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void giveBack(Connection physical) {
+    try {
+      if (closed || physical.isClosed()) {
+        closeQuietly(physical);
+        return;
+      }
+
+      reset(physical);
+      idle.offerFirst(new Idle(physical));
+    }
+    catch (SQLException e) {
+      LOGGER.debug("Discarding connection to {} that could not be reset", url, e);
+      closeQuietly(physical);
+    }
+    finally {
+      permits.release();
+    }
+  }
+
+  private static void reset(Connection physical) throws SQLException {
+    if (!physical.getAutoCommit()) {
+      physical.rollback();
+      physical.setAutoCommit(true);
+    }
+    if (physical.isReadOnly()) {
+      physical.setReadOnly(false);
+    }
+
+    try (Statement stmt = physical.createStatement()) {
+      stmt.execute(RESET_SESSION);
+    }
+    physical.clearWarnings();
+  }
+
+  private static void closeQuietly(Connection physical) {
+    try {
+      physical.close();
+    }
+    catch (SQLException e) {
+      LOGGER.debug("Error while closing pooled connection", e);
+    }
+  }
+
+  private static class Idle {
+    private final Connection connection;
+    private final long since = System.currentTimeMillis();
+
+    private Idle(Connection connection) {
+      this.connection = connection;
+    }
+  }
+
+  /**
+   * Handle given to a borrower. Closing it returns the physical connection to the pool; any later call fails.
+   */
+  private class Borrowed implements InvocationHandler {
+    private Connection physical;
+
+    private Borrowed(Connection physical) {
+      this.physical = physical;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (physical != null) {
+            Connection returned = physical;
+            physical = null;
+            giveBack(returned);
+          }
+          return null;
+        case "isClosed":
+          return physical == null;
+        case "isWrapperFor":
+          return ((Class<?>) args[0]).isInstance(proxy)
+              || (physical != null && physical.isWrapperFor((Class<?>) args[0]));
+        case "unwrap":
+          if (((Class<?>) args[0]).isInstance(proxy)) {
+            return proxy;
+          }
+          break;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled " + physical;
+        default:
+          break;
+      }
+
+      if (physical == null) {
+        throw new SQLException("Connection has already been returned to the pool");
+      }
+      try {
+        return method.invoke(physical, args);
+      }
+      catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package org.finra.samples;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeds tables through {@code COPY ... FROM STDIN} instead of {@code INSERT} statements and logs the load rate.
+ */
+public final class CopyLoader {
+  private static Logger LOGGER = LoggerFactory.getLogger(CopyLoader.class);
+
+  private CopyLoader() {
+  }
+
+  public static long load(Connection conn, Dataset dataset) throws IOException, SQLException {
+    long start = System.nanoTime();
+    long rows = dataset.copy(conn.unwrap(PGConnection.class).getCopyAPI());
+    long elapsed = System.nanoTime() - start;
+    PhaseTimings.record(PhaseTimings.currentScope(), "copy " + dataset.table(), elapsed);
+
+    LOGGER.info("Loaded {} rows into {} in {} ms ({} rows/s)", rows, dataset.table(),
+        TimeUnit.NANOSECONDS.toMillis(elapsed), elapsed == 0 ? rows : rows * TimeUnit.SECONDS.toNanos(1) / elapsed);
+    return rows;
+  }
+}
@@ -0,0 +1,159 @@
+package org.finra.samples;
+
+import com.google.common.io.Resources;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.function.LongFunction;
+
+/**
+ * Shape and size of the rows a test wants in a table, loaded with {@link CopyLoader}. Rows come from a generator, a
+ * CSV resource with a header line, or any {@link Iterable}; they are streamed to the server one buffer at a time and
+ * never held in memory as a whole.
+ */
+public abstract class Dataset {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String table;
+  private final String[] columns;
+
+  private Dataset(String table, String[] columns) {
+    this.table = table;
+    this.columns = columns;
+  }
+
+  /**
+   * {@code rows} rows where row {@code i} (counting from 1) is built by {@code row.apply(i)}.
+   */
+  public static Dataset generate(String table, long rows, LongFunction<Object[]> row, String... columns) {
+    return new Rows(table, columns, () -> new Iterator<Object[]>() {
+      private long next = 1;
+
+      @Override
+      public boolean hasNext() {
+        return next <= rows;
+      }
+
+      @Override
+      public Object[] next() {
+        return row.apply(next++);
+      }
+    });
+  }
+
+  public static Dataset rows(String table, Iterable<Object[]> rows, String... columns) {
+    return new Rows(table, columns, rows);
+  }
+
+  /**
+   * Rows of a CSV file on the test class path. The first line is a header and is skipped.
+   */
+  public static Dataset csv(String table, String resource, String... columns) {
+    return new Csv(table, columns, resource);
+  }
+
+  public String table() {
+    return table;
+  }
+
+  abstract long copy(CopyManager copyManager) throws IOException, SQLException;
+
+  String copyStatement(String options) {
+    return "COPY " + table + (columns.length == 0 ? "" : " (" + String.join(", ", columns) + ")")
+        + " FROM STDIN" + options;
+  }
+
+  private static class Rows extends Dataset {
+    private final Iterable<Object[]> rows;
+
+    private Rows(String table, String[] columns, Iterable<Object[]> rows) {
+      super(table, columns);
+      this.rows = rows;
+    }
+
+    @Override
+    long copy(CopyManager copyManager) throws IOException, SQLException {
+      CopyIn copyIn = copyManager.copyIn(copyStatement(""));
+      try {
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(new PGCopyOutputStream(copyIn, BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE);
+        for (Object[] row : rows) {
+          for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+              writer.write('\t');
+            }
+            writeValue(writer, row[i]);
+          }
+          writer.write('\n');
+        }
+        writer.flush();
+        return copyIn.endCopy();
+      }
+      finally {
+        // Closing the stream would end the copy and keep a partial load, cancel it instead
+        if (copyIn.isActive()) {
+          copyIn.cancelCopy();
+        }
+      }
+    }
+
+    // COPY text format: tab separated, \N for NULL, backslash escapes for the separators
+    private static void writeValue(Writer writer, Object value) throws IOException {
+      if (value == null) {
+        writer.write("\\N");
+        return;
+      }
+      if (value instanceof Number || value instanceof Boolean) {
+        writer.write(value.toString());
+        return;
+      }
+
+      String text = value.toString();
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        switch (c) {
+          case '\\':
+            writer.write("\\\\");
+            break;
+          case '\t':
+            writer.write("\\t");
+            break;
+          case '\n':
+            writer.write("\\n");
+            break;
+          case '\r':
+            writer.write("\\r");
+            break;
+          default:
+            writer.write(c);
+        }
+      }
+    }
+  }
+
+  private static class Csv extends Dataset {
+    private final String resource;
+
+    private Csv(String table, String[] columns, String resource) {
+      super(table, columns);
+      this.resource = resource;
+    }
+
+    @Override
+    long copy(CopyManager copyManager) throws IOException, SQLException {
+      // The server parses the CSV, the file is passed through byte for byte
+      try (InputStream in = Resources.getResource(resource).openStream()) {
+        return copyManager.copyIn(copyStatement(" WITH (FORMAT csv, HEADER true)"), in, BUFFER_SIZE);
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.finra.samples;
+
+import de.flapdoodle.embed.process.io.file.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses where embedded clusters keep their data directory (and with it the WAL). With
+ * {@code -Dpostgres.storage=tmpfs} data directories are created on a memory-backed file system, {@code /dev/shm}
+ * unless {@code -Dpostgres.storage.tmpfs.dir} says otherwise. Every cluster reserves
+ * {@code postgres.storage.tmpfs.clusterMb} from a JVM-wide {@code postgres.storage.tmpfs.budgetMb}; once the budget
+ * or the file system runs short, new clusters fall back to the default temp disk.
+ */
+public final class EmbeddedStorage {
+  private static Logger LOGGER = LoggerFactory.getLogger(EmbeddedStorage.class);
+
+  private static final long MB = 1024L * 1024L;
+
+  private static final boolean TMPFS = "tmpfs".equalsIgnoreCase(System.getProperty("postgres.storage", "disk"));
+  private static final File TMPFS_DIR = new File(System.getProperty("postgres.storage.tmpfs.dir", "/dev/shm"));
+  private static final long BUDGET = Long.getLong("postgres.storage.tmpfs.budgetMb", 1024L) * MB;
+  private static final long CLUSTER_SIZE = Long.getLong("postgres.storage.tmpfs.clusterMb", 128L) * MB;
+
+  private static final AtomicLong reserved = new AtomicLong();
+  private static final Set<File> inMemory = ConcurrentHashMap.newKeySet();
+
+  private EmbeddedStorage() {
+  }
+
+  public static Storage storage(String dbName) throws IOException {
+    if (TMPFS) {
+      File dataDir = reserve();
+      if (dataDir != null) {
+        return new Storage(dbName, dataDir.getAbsolutePath());
+      }
+    }
+    return new Storage(dbName);
+  }
+
+  public static void release(Storage storage) {
+    if (storage != null && inMemory.remove(storage.dbDir())) {
+      Files.forceDelete(storage.dbDir());
+      reserved.addAndGet(-CLUSTER_SIZE);
+    }
+  }
+
+  private static File reserve() throws IOException {
+    if (!TMPFS_DIR.isDirectory()) {
+      LOGGER.warn("{} does not exist, keeping data directories on disk", TMPFS_DIR);
+      return null;
+    }
+
+    if (reserved.addAndGet(CLUSTER_SIZE) > BUDGET || TMPFS_DIR.getUsableSpace() < CLUSTER_SIZE) {
+      reserved.addAndGet(-CLUSTER_SIZE);
+      LOGGER.warn("Memory budget for {} exhausted ({} MB reserved), falling back to disk",
+          TMPFS_DIR, reserved.get() / MB);
+      return null;
+    }
+
+    File dataDir = java.nio.file.Files.createTempDirectory(TMPFS_DIR.toPath(), "embedded-postgres-").toFile();
+    inMemory.add(dataDir);
+    return dataDir;
+  }
+}
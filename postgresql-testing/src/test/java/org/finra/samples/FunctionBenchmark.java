@@ -0,0 +1,187 @@
+package org.finra.samples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures SQL functions that work on {@code test_values} at increasing table sizes. For every row count the table is
+ * loaded once through {@link CopyLoader}; each function then gets warmup iterations followed by measured ones. An
+ * iteration runs the function in a transaction that is rolled back and vacuumed afterwards, so every iteration sees
+ * the same data. Row counts and iterations come from {@code -Dpostgres.benchmark.rows} (comma separated),
+ * {@code -Dpostgres.benchmark.warmup} and {@code -Dpostgres.benchmark.iterations}; results go to the log and to
+ * {@code function-benchmark.csv}/{@code .json} in the {@link TestReports} directory.
+ */
+public class FunctionBenchmark {
+  private static Logger LOGGER = LoggerFactory.getLogger(FunctionBenchmark.class);
+
+  private final ConnectionPool pool;
+  private final long[] rowCounts;
+  private final int warmup;
+  private final int iterations;
+
+  public FunctionBenchmark(ConnectionPool pool, long[] rowCounts, int warmup, int iterations) {
+    this.pool = pool;
+    this.rowCounts = rowCounts;
+    this.warmup = warmup;
+    this.iterations = iterations;
+  }
+
+  public static FunctionBenchmark configured(ConnectionPool pool) {
+    long[] rowCounts = Arrays.stream(System.getProperty("postgres.benchmark.rows", "1000,10000").split(","))
+        .map(String::trim)
+        .mapToLong(Long::parseLong)
+        .toArray();
+    return new FunctionBenchmark(pool, rowCounts,
+        Integer.getInteger("postgres.benchmark.warmup", 2),
+        Integer.getInteger("postgres.benchmark.iterations", 5));
+  }
+
+  /**
+   * Runs every function at every row count. {@code prepare} statements run once on the empty table, before the first
+   * load, e.g. to add the indexes production tables have.
+   */
+  public List<Result> run(List<String> functions, String... prepare) throws IOException, SQLException {
+    List<Result> results = new ArrayList<>();
+
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        for (String sql : prepare) {
+          stmt.executeUpdate(sql);
+        }
+
+        for (long rows : rowCounts) {
+          stmt.executeUpdate("TRUNCATE test_values");
+          CopyLoader.load(conn, Dataset.generate("test_values", rows, i -> new Object[]{i, i % 1000}, "id", "value"));
+          stmt.executeUpdate("VACUUM ANALYZE test_values");
+
+          for (String function : functions) {
+            Result result = measure(conn, function, rows);
+            LOGGER.info(result.toString());
+            results.add(result);
+          }
+        }
+      }
+    }
+
+    write(results);
+    return results;
+  }
+
+  private Result measure(Connection conn, String function, long rows) throws SQLException {
+    for (int i = 0; i < warmup; i++) {
+      iteration(conn, function);
+    }
+
+    long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      latencies[i] = iteration(conn, function);
+    }
+    return new Result(function, rows, latencies);
+  }
+
+  private static long iteration(Connection conn, String function) throws SQLException {
+    long elapsed;
+    conn.setAutoCommit(false);
+    try (Statement stmt = conn.createStatement()) {
+      long start = System.nanoTime();
+      stmt.executeQuery("SELECT * FROM " + function + "()").close();
+      elapsed = System.nanoTime() - start;
+    }
+    finally {
+      conn.rollback();
+      conn.setAutoCommit(true);
+    }
+
+    // The rolled back updates leave a dead version of every row behind, clean them up outside of the measurement
+    try (Statement stmt = conn.createStatement()) {
+      stmt.executeUpdate("VACUUM test_values");
+    }
+    return elapsed;
+  }
+
+  private static void write(List<Result> results) throws IOException {
+    try (Writer csv = Files.newBufferedWriter(TestReports.file("function-benchmark.csv"), StandardCharsets.UTF_8)) {
+      csv.write("function,rows,iterations,opsPerSec,p50Ms,p90Ms,p99Ms,rowsPerSec\n");
+      for (Result result : results) {
+        csv.write(String.format("%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.0f%n", result.function, result.rows,
+            result.latencies.length, result.opsPerSecond(), result.percentileMillis(50), result.percentileMillis(90),
+            result.percentileMillis(99), result.rowsPerSecond()));
+      }
+    }
+
+    try (Writer json = Files.newBufferedWriter(TestReports.file("function-benchmark.json"), StandardCharsets.UTF_8)) {
+      json.write("[\n");
+      for (int i = 0; i < results.size(); i++) {
+        Result result = results.get(i);
+        json.write(String.format("  {\"function\": \"%s\", \"rows\": %d, \"iterations\": %d, \"opsPerSec\": %.3f, "
+                + "\"p50Ms\": %.3f, \"p90Ms\": %.3f, \"p99Ms\": %.3f, \"rowsPerSec\": %.0f}%s%n",
+            result.function, result.rows, result.latencies.length, result.opsPerSecond(), result.percentileMillis(50),
+            result.percentileMillis(90), result.percentileMillis(99), result.rowsPerSecond(),
+            i < results.size() - 1 ? "," : ""));
+      }
+      json.write("]\n");
+    }
+  }
+
+  public static class Result {
+    private final String function;
+    private final long rows;
+    private final long[] latencies;
+
+    private Result(String function, long rows, long[] latencies) {
+      this.function = function;
+      this.rows = rows;
+      this.latencies = latencies.clone();
+      Arrays.sort(this.latencies);
+    }
+
+    public String function() {
+      return function;
+    }
+
+    public long rows() {
+      return rows;
+    }
+
+    public int iterations() {
+      return latencies.length;
+    }
+
+    public double opsPerSecond() {
+      long total = Arrays.stream(latencies).sum();
+      return total == 0 ? 0 : latencies.length * (double) TimeUnit.SECONDS.toNanos(1) / total;
+    }
+
+    public double rowsPerSecond() {
+      return rows * opsPerSecond();
+    }
+
+    // Nearest-rank percentile over the measured iterations
+    public double percentileMillis(int percentile) {
+      if (latencies.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100.0 * latencies.length);
+      return latencies[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s on %d rows: %.2f ops/s, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, %.0f rows/s",
+          function, rows, opsPerSecond(), percentileMillis(50), percentileMillis(90), percentileMillis(99),
+          rowsPerSecond());
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package org.finra.samples;
+
+import de.flapdoodle.embed.process.config.IRuntimeConfig;
+import de.flapdoodle.embed.process.io.file.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.yandex.qatools.embed.postgresql.Command;
+import ru.yandex.qatools.embed.postgresql.PostgresExecutable;
+import ru.yandex.qatools.embed.postgresql.PostgresProcess;
+import ru.yandex.qatools.embed.postgresql.PostgresStarter;
+import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Credentials;
+import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Net;
+import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Storage;
+import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Timeout;
+import ru.yandex.qatools.embed.postgresql.config.PostgresConfig;
+import ru.yandex.qatools.embed.postgresql.config.RuntimeConfigBuilder;
+import ru.yandex.qatools.embed.postgresql.ext.SubdirTempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * Embedded Postgres instances shared by every test class in the JVM. The first {@link #lease()} starts
+ * {@code -Dpostgres.instances} clusters in the background (by default one per core, as far as free memory allows), each
+ * on a free port. A lease hands out a running instance with an empty {@code dbname} database; closing the lease drops
+ * every database the test created and puts the instance back for the next class. All instances are stopped by a single
+ * shutdown hook.
+ */
+public final class InstancePool {
+  private static Logger LOGGER = LoggerFactory.getLogger(InstancePool.class);
+
+  // Instances start and reset on background threads, outside of any test's timing scope
+  private static final String SCOPE = InstancePool.class.getName();
+
+  private static final String DATABASE = "dbname";
+  private static final String MAINTENANCE_DATABASE = "postgres";
+
+  // Rough footprint of an idle test cluster, shared buffers included
+  private static final long INSTANCE_MEMORY = 256L * 1024L * 1024L;
+
+  private static final int SIZE = Integer.getInteger("postgres.instances", defaultSize());
+  private static final long LEASE_TIMEOUT_MS = Long.getLong("postgres.instances.leaseTimeoutMs", 300000L);
+
+  private static final IRuntimeConfig RUNTIME_CONFIG = new RuntimeConfigBuilder().defaults(Command.Postgres).build();
+
+  private static final BlockingQueue<Instance> idle = new LinkedBlockingQueue<>();
+  private static final Set<Instance> instances = ConcurrentHashMap.newKeySet();
+  private static final AtomicInteger slots = new AtomicInteger();
+  private static final ExecutorService background = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "postgres-instance-pool");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static volatile Exception lastFailure;
+
+  static {
+    Runtime.getRuntime().addShutdownHook(
+        new Thread(() -> shutdown())
+    );
+  }
+
+  private InstancePool() {
+  }
+
+  public static Instance lease() throws IOException {
+    // Fill every free slot: the first class pays for one startup, the others are ready before they are asked for
+    while (slots.get() < SIZE) {
+      int taken = slots.get();
+      if (slots.compareAndSet(taken, taken + 1)) {
+        background.execute(() -> startInstance());
+      }
+    }
+
+    long deadline = System.currentTimeMillis() + LEASE_TIMEOUT_MS;
+    try (PhaseTimings.Timing timing = PhaseTimings.time("instance.lease")) {
+      while (System.currentTimeMillis() < deadline) {
+        Instance instance = idle.poll(1, TimeUnit.SECONDS);
+        if (instance != null) {
+          instance.leased.set(true);
+          return instance;
+        }
+        if (slots.get() == 0 && lastFailure != null) {
+          throw new IOException("No Postgres instance could be started", lastFailure);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a Postgres instance", e);
+    }
+    throw new IOException("No Postgres instance became available within " + LEASE_TIMEOUT_MS + " ms");
+  }
+
+  private static int defaultSize() {
+    int size = Runtime.getRuntime().availableProcessors();
+
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      long free = ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+      size = (int) Math.min(size, free / INSTANCE_MEMORY);
+    }
+    return Math.max(1, size);
+  }
+
+  private static void startInstance() {
+    Storage storage = null;
+    PostgresProcess process = null;
+    try {
+      storage = EmbeddedStorage.storage(DATABASE);
+
+      PostgresConfig config = new PostgresConfig(
+          () -> "9.6.3-1",
+          new Net(),
+          storage,
+          new Timeout(),
+          new Credentials("username", "password"));
+
+      PostgresStarter<PostgresExecutable, PostgresProcess> runtime = PostgresStarter.getInstance(RUNTIME_CONFIG);
+      PostgresExecutable exec;
+      try (PhaseTimings.Timing timing = PhaseTimings.time(SCOPE, "instance.extract")) {
+        exec = runtime.prepare(PerformanceProfile.current().apply(config));
+      }
+      try (PhaseTimings.Timing timing = PhaseTimings.time(SCOPE, "instance.start")) {
+        process = exec.start();
+      }
+
+      Instance instance = new Instance(process, storage, config);
+      try (Connection conn = DriverManager.getConnection(instance.url(), instance.properties())) {
+        PerformanceProfile.current().record("embedded", conn);
+      }
+      StatementStats.register(instance.url(MAINTENANCE_DATABASE), instance.properties());
+
+      instances.add(instance);
+      LOGGER.info("Started pooled Postgres instance on port {}", config.net().port());
+      idle.add(instance);
+    }
+    catch (Exception e) {
+      LOGGER.error("Could not start a pooled Postgres instance", e);
+      if (process != null && process.isProcessRunning()) {
+        process.stop();
+      }
+      EmbeddedStorage.release(storage);
+      lastFailure = e;
+      slots.decrementAndGet();
+    }
+  }
+
+  private static void giveBack(Instance instance) {
+    background.execute(() -> {
+      try {
+        try (PhaseTimings.Timing timing = PhaseTimings.time(SCOPE, "instance.reset")) {
+          instance.reset();
+        }
+        idle.add(instance);
+      }
+      catch (SQLException e) {
+        LOGGER.warn("Could not reset Postgres instance on port {}, replacing it", instance.port(), e);
+        instances.remove(instance);
+        instance.stop();
+        startInstance();
+      }
+    });
+  }
+
+  private static void shutdown() {
+    background.shutdownNow();
+    for (Instance instance : instances) {
+      instance.stop();
+    }
+    Files.forceDelete(SubdirTempDir.defaultInstance().asFile());
+  }
+
+  public static class Instance implements AutoCloseable {
+    private final PostgresProcess process;
+    private final Storage storage;
+    private final String host;
+    private final int port;
+    private final Properties properties;
+    private final AtomicBoolean leased = new AtomicBoolean();
+
+    private Instance(PostgresProcess process, Storage storage, PostgresConfig config) {
+      this.process = process;
+      this.storage = storage;
+      this.host = config.net().host();
+      this.port = config.net().port();
+
+      properties = new Properties();
+      properties.setProperty("user", config.credentials().username());
+      properties.setProperty("password", config.credentials().password());
+    }
+
+    public String host() {
+      return host;
+    }
+
+    public int port() {
+      return port;
+    }
+
+    public String database() {
+      return DATABASE;
+    }
+
+    public String url() {
+      return url(DATABASE);
+    }
+
+    public String url(String database) {
+      return format("jdbc:postgresql://%s:%s/%s", host, port, database);
+    }
+
+    public Properties properties() {
+      return properties;
+    }
+
+    @Override
+    public void close() {
+      if (leased.compareAndSet(true, false)) {
+        giveBack(this);
+      }
+    }
+
+    private void reset() throws SQLException {
+      try (Connection conn = DriverManager.getConnection(url(MAINTENANCE_DATABASE), properties)) {
+        try (Statement stmt = conn.createStatement()) {
+          stmt.executeQuery(
+              "SELECT pg_terminate_backend(pid) FROM pg_stat_activity\n"
+                  + "WHERE pid <> pg_backend_pid() AND datname IS NOT NULL").close();
+
+          List<String> databases = new ArrayList<>();
+          try (ResultSet rs = stmt.executeQuery(
+              "SELECT datname FROM pg_database\n"
+                  + "WHERE datname NOT IN ('postgres', 'template0', 'template1')")) {
+            while (rs.next()) {
+              databases.add(rs.getString(1));
+            }
+          }
+
+          // Templates left behind by TemplateDatabase have to be turned back into plain databases to be dropped
+          for (String database : databases) {
+            stmt.executeUpdate("ALTER DATABASE \"" + database + "\" WITH IS_TEMPLATE false");
+            stmt.executeUpdate("DROP DATABASE \"" + database + "\"");
+          }
+          stmt.executeUpdate("CREATE DATABASE " + DATABASE);
+        }
+      }
+    }
+
+    private void stop() {
+      StatementStats.unregister(url(MAINTENANCE_DATABASE));
+      if (process.isProcessRunning()) {
+        process.stop();
+      }
+      EmbeddedStorage.release(storage);
+    }
+  }
+}
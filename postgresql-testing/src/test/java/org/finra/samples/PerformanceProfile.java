@@ -0,0 +1,126 @@
+package org.finra.samples;
+
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+import ru.yandex.qatools.embed.postgresql.config.PostgresConfig;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server settings applied to every test cluster at startup, selected with {@code -Dpostgres.profile}. {@code stock}
+ * keeps the Postgres defaults; {@code ephemeral} trades crash safety, which throwaway test databases never need, for
+ * lower commit and checkpoint overhead. The same settings reach the embedded backend through {@link PostgresConfig}
+ * and the container backend through its command line, so latencies are comparable between the two.
+ */
+public enum PerformanceProfile {
+  STOCK(ImmutableMap.of(), Collections.emptyList()),
+  EPHEMERAL(ImmutableMap.<String, String>builder()
+      .put("fsync", "off")
+      .put("synchronous_commit", "off")
+      .put("full_page_writes", "off")
+      .put("wal_level", "minimal")
+      .put("max_wal_senders", "0")
+      .put("checkpoint_timeout", "1d")
+      .put("max_wal_size", "1GB")
+      .put("autovacuum", "off")
+      .build(),
+      Collections.singletonList("--nosync"));
+
+  private static Logger LOGGER = LoggerFactory.getLogger(PerformanceProfile.class);
+
+  private static final List<String> INIT_DB_PARAMS =
+      Arrays.asList("-E", "SQL_ASCII", "--locale=C", "--lc-collate=C", "--lc-ctype=C");
+
+  private static final Set<String> recorded = ConcurrentHashMap.newKeySet();
+
+  private final Map<String, String> settings;
+  private final List<String> initDbParams;
+
+  PerformanceProfile(Map<String, String> settings, List<String> initDbParams) {
+    this.settings = settings;
+    this.initDbParams = initDbParams;
+  }
+
+  public static PerformanceProfile current() {
+    return valueOf(System.getProperty("postgres.profile", "stock").toUpperCase(Locale.ROOT));
+  }
+
+  public Map<String, String> settings() {
+    return settings;
+  }
+
+  public List<String> initDbParams() {
+    List<String> params = new ArrayList<>(INIT_DB_PARAMS);
+    params.addAll(initDbParams);
+    return params;
+  }
+
+  public List<String> postgresParams() {
+    List<String> params = new ArrayList<>();
+    for (Map.Entry<String, String> setting : settings.entrySet()) {
+      params.add("-c");
+      params.add(setting.getKey() + "=" + setting.getValue());
+    }
+    params.addAll(StatementStats.postgresParams());
+    return params;
+  }
+
+  public PostgresConfig apply(PostgresConfig config) {
+    config.getAdditionalInitDbParams().addAll(initDbParams);
+    config.getAdditionalPostgresParams().addAll(postgresParams());
+    return config;
+  }
+
+  @SuppressWarnings("unchecked")
+  public PostgreSQLContainer container(String dockerImageName) {
+    List<String> command = new ArrayList<>();
+    command.add("postgres");
+    command.addAll(postgresParams());
+
+    // PostgreSQLContainer resets its command in configure(), so the profile has to be applied after it
+    return new PostgreSQLContainer(dockerImageName) {
+      @Override
+      protected void configure() {
+        super.configure();
+        setCommand(command.toArray(new String[0]));
+      }
+    };
+  }
+
+  public void record(String backend, Connection conn) throws IOException, SQLException {
+    if (!recorded.add(backend)) {
+      return;
+    }
+
+    // Always report the full set of tuned settings so stock and ephemeral runs can be compared line by line
+    Properties inEffect = new Properties();
+    inEffect.setProperty("profile", name().toLowerCase(Locale.ROOT));
+    try (PreparedStatement stmt = conn.prepareStatement(
+        "SELECT name, setting, unit FROM pg_settings WHERE name = ANY (?)")) {
+      stmt.setArray(1, conn.createArrayOf("text", EPHEMERAL.settings.keySet().toArray()));
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          String unit = rs.getString(3);
+          inEffect.setProperty(rs.getString(1), rs.getString(2) + (unit == null ? "" : " " + unit));
+        }
+      }
+    }
+
+    try (Writer writer = Files.newBufferedWriter(TestReports.file("profile-" + backend + ".properties"),
+        StandardCharsets.UTF_8)) {
+      inEffect.store(writer, "Postgres settings in effect for the " + backend + " backend");
+    }
+    LOGGER.info("{} backend running with {} profile: {}", backend, inEffect.getProperty("profile"), inEffect);
+  }
+}
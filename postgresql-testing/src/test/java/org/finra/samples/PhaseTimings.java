@@ -0,0 +1,194 @@
+package org.finra.samples;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * JVM-wide registry of how long each phase of the Postgres test lifecycle takes: binary extraction, server and
+ * container start, instance leases, template copies, {@code setUp.sql}/{@code tearDown.sql}, connection acquisition
+ * and the tests themselves. Phases are recorded against the scope of the running test or class, which this rule sets
+ * when used as {@code @ClassRule} and {@code @Rule}. Besides its {@code total}, which includes {@code @Before} and
+ * {@code @After}, every test gets a {@code body}: the time its thread spent outside the phases recorded while it ran, so
+ * fixture work such as {@code setUp.sql} or instance leases is not counted. After every class the totals are written to
+ * {@code phase-timings.json} and {@code phase-timings.csv} in the {@link TestReports} directory and the slowest phases
+ * of the class are logged.
+ */
+public class PhaseTimings implements TestRule {
+  private static Logger LOGGER = LoggerFactory.getLogger(PhaseTimings.class);
+
+  private static final int SUMMARY_SIZE = Integer.getInteger("postgres.timings.top", 10);
+
+  private static final Map<String, Map<String, Phase>> scopes = new ConcurrentHashMap<>();
+  private static final ThreadLocal<String> currentScope = new ThreadLocal<>();
+
+  // Phases open on each thread, and the time its outermost phases took, so nested phases are not counted twice
+  private static final ThreadLocal<int[]> openPhases = ThreadLocal.withInitial(() -> new int[1]);
+  private static final ThreadLocal<long[]> phaseNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+  public static String currentScope() {
+    String scope = currentScope.get();
+    return scope == null ? Thread.currentThread().getName() : scope;
+  }
+
+  public static Scope enter(String scope) {
+    String previous = currentScope.get();
+    currentScope.set(scope);
+    return () -> {
+      if (previous == null) {
+        currentScope.remove();
+      }
+      else {
+        currentScope.set(previous);
+      }
+    };
+  }
+
+  public static Timing time(String phase) {
+    return time(currentScope(), phase);
+  }
+
+  public static Timing time(String scope, String phase) {
+    long start = System.nanoTime();
+    openPhases.get()[0]++;
+    return () -> {
+      openPhases.get()[0]--;
+      record(scope, phase, System.nanoTime() - start);
+    };
+  }
+
+  public static void record(String scope, String phase, long nanos) {
+    if (openPhases.get()[0] == 0) {
+      phaseNanos.get()[0] += nanos;
+    }
+    add(scope, phase, nanos);
+  }
+
+  private static void add(String scope, String phase, long nanos) {
+    scopes.computeIfAbsent(scope, s -> new ConcurrentHashMap<>())
+        .computeIfAbsent(phase, p -> new Phase())
+        .add(nanos);
+  }
+
+  @Override
+  public Statement apply(Statement base, Description description) {
+    String scope = description.isSuite()
+        ? description.getClassName()
+        : description.getClassName() + "#" + description.getMethodName();
+
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        // Not timed as phases themselves, so the phases recorded inside still count as outermost
+        long start = System.nanoTime();
+        long phasesBefore = phaseNanos.get()[0];
+        try (Scope ignored = enter(scope)) {
+          base.evaluate();
+        }
+        finally {
+          long total = System.nanoTime() - start;
+          add(scope, "total", total);
+          if (description.isSuite()) {
+            report(scope);
+          }
+          else {
+            add(scope, "body", Math.max(0, total - (phaseNanos.get()[0] - phasesBefore)));
+          }
+        }
+      }
+    };
+  }
+
+  private static void report(String className) throws IOException {
+    List<String[]> rows = new ArrayList<>();
+    for (Map.Entry<String, Map<String, Phase>> scope : new TreeMap<>(scopes).entrySet()) {
+      for (Map.Entry<String, Phase> phase : new TreeMap<>(scope.getValue()).entrySet()) {
+        Phase timing = phase.getValue();
+        rows.add(new String[]{scope.getKey(), phase.getKey(), Long.toString(timing.count.get()),
+            Long.toString(millis(timing.total.get())), Long.toString(millis(timing.max.get()))});
+      }
+    }
+
+    try (Writer csv = Files.newBufferedWriter(TestReports.file("phase-timings.csv"), StandardCharsets.UTF_8)) {
+      csv.write("scope,phase,count,totalMs,maxMs\n");
+      for (String[] row : rows) {
+        csv.write(Arrays.stream(row).map(PhaseTimings::csvValue).collect(Collectors.joining(",")) + "\n");
+      }
+    }
+
+    try (Writer json = Files.newBufferedWriter(TestReports.file("phase-timings.json"), StandardCharsets.UTF_8)) {
+      json.write("[\n");
+      for (int i = 0; i < rows.size(); i++) {
+        String[] row = rows.get(i);
+        json.write(String.format("  {\"scope\": %s, \"phase\": %s, \"count\": %s, \"totalMs\": %s, \"maxMs\": %s}%s%n",
+            jsonString(row[0]), jsonString(row[1]), row[2], row[3], row[4], i < rows.size() - 1 ? "," : ""));
+      }
+      json.write("]\n");
+    }
+
+    // Only the phases of the class that just finished; the report files hold everything since the JVM started
+    List<String[]> slowest = rows.stream()
+        .filter(row -> row[0].equals(className) || row[0].startsWith(className + "#"))
+        .filter(row -> !row[1].equals("total"))
+        .sorted(Comparator.comparingLong((String[] row) -> Long.parseLong(row[3])).reversed())
+        .limit(SUMMARY_SIZE)
+        .collect(Collectors.toList());
+    StringBuilder summary = new StringBuilder("Slowest phases of " + className + ":");
+    for (String[] row : slowest) {
+      summary.append(String.format("%n  %8s ms  %-20s x%-5s %s", row[3], row[1], row[2], row[0]));
+    }
+    LOGGER.info(summary.toString());
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static String csvValue(String value) {
+    return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+  }
+
+  private static String jsonString(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  /**
+   * Restores the previous scope of the thread when closed.
+   */
+  public interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /**
+   * Records the time since it was started when closed.
+   */
+  public interface Timing extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static class Phase {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private void add(long nanos) {
+      count.incrementAndGet();
+      total.addAndGet(nanos);
+      max.accumulateAndGet(nanos, Math::max);
+    }
+  }
+}
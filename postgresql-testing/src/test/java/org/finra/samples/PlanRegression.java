@@ -0,0 +1,316 @@
+package org.finra.samples;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Compares the execution plan of chosen statements with a baseline in {@code src/test/resources/plans}. The plan is
+ * captured with {@code EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON)} in a transaction that is rolled back; for function
+ * calls the plans of the statements inside the function are collected through {@code auto_explain}. A plan regresses
+ * when its shape changes or when its estimated cost or its shared buffer accesses grow past
+ * {@code -Dpostgres.plans.costThreshold} and {@code -Dpostgres.plans.buffersThreshold} (relative, 0.2 by default).
+ * {@code -Dpostgres.plans} selects what happens: {@code off}, {@code warn} (the default), {@code fail}, or
+ * {@code record} to write new baselines to {@code -Dpostgres.plans.dir}.
+ */
+public final class PlanRegression {
+  private static Logger LOGGER = LoggerFactory.getLogger(PlanRegression.class);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  private static final double COST_THRESHOLD =
+      Double.parseDouble(System.getProperty("postgres.plans.costThreshold", "0.2"));
+  private static final double BUFFERS_THRESHOLD =
+      Double.parseDouble(System.getProperty("postgres.plans.buffersThreshold", "0.2"));
+
+  public enum Mode {
+    OFF, WARN, FAIL, RECORD;
+
+    public static Mode current() {
+      return valueOf(System.getProperty("postgres.plans", "warn").toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private PlanRegression() {
+  }
+
+  /**
+   * Captures the plan of {@code sql} and checks it against the baseline called {@code name}. Returns the captured plan,
+   * or {@code null} when plan checks are off.
+   */
+  public static Plan check(Connection conn, String name, String sql) throws IOException, SQLException {
+    Mode mode = Mode.current();
+    if (mode == Mode.OFF) {
+      return null;
+    }
+
+    Plan plan;
+    try (PhaseTimings.Timing timing = PhaseTimings.time("explain " + name)) {
+      plan = capture(conn, sql);
+    }
+    Files.write(TestReports.file("plan-" + name + ".json"), plan.toJson().getBytes(Charsets.UTF_8));
+
+    if (mode == Mode.RECORD) {
+      Path baseline = Files.createDirectories(
+          Paths.get(System.getProperty("postgres.plans.dir", "src/test/resources/plans"))).resolve(name + ".json");
+      Files.write(baseline, plan.toJson().getBytes(Charsets.UTF_8));
+      LOGGER.info("Recorded plan baseline {}", baseline);
+      return plan;
+    }
+
+    URL resource = PlanRegression.class.getClassLoader().getResource("plans/" + name + ".json");
+    if (resource == null) {
+      LOGGER.warn("No plan baseline for {}, record one with -Dpostgres.plans=record", name);
+      return plan;
+    }
+
+    List<String> regressions = compare(Plan.fromJson(Resources.toString(resource, Charsets.UTF_8)), plan);
+    if (!regressions.isEmpty()) {
+      String message = "Plan of " + name + " regressed:\n  " + String.join("\n  ", regressions);
+      if (mode == Mode.FAIL) {
+        throw new AssertionError(message);
+      }
+      LOGGER.warn(message);
+    }
+    return plan;
+  }
+
+  public static Plan capture(Connection conn, String sql) throws SQLException {
+    boolean nested = loadAutoExplain(conn);
+    String explain = "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + sql;
+
+    boolean autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+    try {
+      if (nested) {
+        try (Statement stmt = conn.createStatement()) {
+          // auto_explain reports at LOG level, which reaches the client as warnings on the explained statement. Kept out
+          // of the server log: nothing drains the embedded server's output and a full pipe blocks the backend
+          stmt.execute("SET LOCAL auto_explain.log_min_duration = 0;\n"
+              + "SET LOCAL auto_explain.log_nested_statements = on;\n"
+              + "SET LOCAL auto_explain.log_analyze = on;\n"
+              + "SET LOCAL auto_explain.log_buffers = on;\n"
+              + "SET LOCAL auto_explain.log_format = json;\n"
+              + "SET LOCAL client_min_messages = log;\n"
+              + "SET LOCAL log_min_messages = fatal;");
+        }
+      }
+
+      try (Statement stmt = conn.createStatement()) {
+        String json;
+        try (ResultSet rs = stmt.executeQuery(explain)) {
+          rs.next();
+          json = rs.getString(1);
+        }
+
+        List<JsonNode> nestedPlans = new ArrayList<>();
+        for (SQLWarning warning = stmt.getWarnings(); warning != null; warning = warning.getNextWarning()) {
+          String message = warning.getMessage();
+          int start = message == null ? -1 : message.indexOf('{');
+          if (start >= 0 && message.contains("plan:")) {
+            JsonNode logged = readTree(message.substring(start));
+            if (!explain.equals(logged.path("Query Text").asText())) {
+              nestedPlans.add(logged);
+            }
+          }
+        }
+        return Plan.from(sql, readTree(json).get(0), nestedPlans);
+      }
+    }
+    finally {
+      conn.rollback();
+      conn.setAutoCommit(autoCommit);
+    }
+  }
+
+  // LOAD needs a superuser; without auto_explain only the top-level plan is compared
+  private static boolean loadAutoExplain(Connection conn) {
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("LOAD 'auto_explain'");
+      return true;
+    }
+    catch (SQLException e) {
+      LOGGER.warn("auto_explain is not available, nested statements will not be compared: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  static List<String> compare(Plan baseline, Plan current) {
+    List<String> regressions = new ArrayList<>();
+    if (!baseline.shape.equals(current.shape)) {
+      regressions.add("shape changed from " + baseline.shape + " to " + current.shape);
+    }
+
+    for (Map.Entry<String, Nested> entry : baseline.nested.entrySet()) {
+      Nested actual = current.nested.get(entry.getKey());
+      if (actual == null) {
+        regressions.add("no longer executed: " + entry.getKey());
+      }
+      else if (!entry.getValue().shape.equals(actual.shape)) {
+        regressions.add("shape of " + entry.getKey() + " changed from " + entry.getValue().shape + " to "
+            + actual.shape);
+      }
+    }
+    for (String query : current.nested.keySet()) {
+      if (!baseline.nested.containsKey(query)) {
+        regressions.add("newly executed: " + query);
+      }
+    }
+
+    if (current.estimatedCost() > baseline.estimatedCost() * (1 + COST_THRESHOLD)) {
+      regressions.add(String.format("estimated cost grew from %.2f to %.2f", baseline.estimatedCost(),
+          current.estimatedCost()));
+    }
+    if (current.sharedBlocks > baseline.sharedBlocks * (1 + BUFFERS_THRESHOLD)) {
+      regressions.add(String.format("shared buffer accesses grew from %d to %d", baseline.sharedBlocks,
+          current.sharedBlocks));
+    }
+    return regressions;
+  }
+
+  private static JsonNode readTree(String json) throws SQLException {
+    try {
+      return MAPPER.readTree(json);
+    }
+    catch (IOException e) {
+      throw new SQLException("Could not parse plan: " + json, e);
+    }
+  }
+
+  private static List<String> shapeOf(JsonNode node) {
+    List<String> shape = new ArrayList<>();
+    shapeOf(node, "", shape);
+    return shape;
+  }
+
+  private static void shapeOf(JsonNode node, String indent, List<String> shape) {
+    StringBuilder label = new StringBuilder(indent).append(node.path("Node Type").asText());
+    if (node.has("Index Name")) {
+      label.append(" using ").append(node.get("Index Name").asText());
+    }
+    if (node.has("Relation Name")) {
+      label.append(" on ").append(node.get("Relation Name").asText());
+    }
+    shape.add(label.toString());
+    for (JsonNode child : node.path("Plans")) {
+      shapeOf(child, indent + "  ", shape);
+    }
+  }
+
+  /**
+   * The parts of a captured plan that are compared: timings are left out, they vary from run to run.
+   */
+  public static class Plan {
+    private final String statement;
+    private final List<String> shape;
+    private final double totalCost;
+    private final long sharedBlocks;
+    private final Map<String, Nested> nested;
+
+    private Plan(String statement, List<String> shape, double totalCost, long sharedBlocks,
+                 Map<String, Nested> nested) {
+      this.statement = statement;
+      this.shape = shape;
+      this.totalCost = totalCost;
+      this.sharedBlocks = sharedBlocks;
+      this.nested = nested;
+    }
+
+    private static Plan from(String statement, JsonNode explained, List<JsonNode> nestedPlans) {
+      JsonNode root = explained.get("Plan");
+
+      Map<String, Nested> nested = new TreeMap<>();
+      for (JsonNode logged : nestedPlans) {
+        String query = logged.path("Query Text").asText();
+        Nested previous = nested.get(query);
+        // Keep the latest plan, plpgsql switches to a generic plan after a few executions
+        nested.put(query, new Nested(previous == null ? 1 : previous.calls + 1, shapeOf(logged.get("Plan")),
+            logged.get("Plan").path("Total Cost").asDouble()));
+      }
+
+      // Buffers of the top node include everything the statement did, nested statements too
+      return new Plan(statement, shapeOf(root), root.path("Total Cost").asDouble(),
+          root.path("Shared Hit Blocks").asLong() + root.path("Shared Read Blocks").asLong(), nested);
+    }
+
+    private static Plan fromJson(String json) throws IOException {
+      JsonNode node = MAPPER.readTree(json);
+      Map<String, Nested> nested = new TreeMap<>();
+      for (JsonNode statement : node.path("nested")) {
+        nested.put(statement.get("query").asText(), new Nested(statement.get("calls").asLong(),
+            strings(statement.get("shape")), statement.get("totalCost").asDouble()));
+      }
+      return new Plan(node.get("statement").asText(), strings(node.get("shape")), node.get("totalCost").asDouble(),
+          node.get("sharedBlocks").asLong(), nested);
+    }
+
+    private static List<String> strings(JsonNode array) {
+      List<String> strings = new ArrayList<>();
+      for (JsonNode element : array) {
+        strings.add(element.asText());
+      }
+      return strings;
+    }
+
+    public String toJson() throws IOException {
+      ObjectNode node = MAPPER.createObjectNode();
+      node.put("statement", statement);
+      shape.forEach(node.putArray("shape")::add);
+      node.put("totalCost", totalCost);
+      node.put("sharedBlocks", sharedBlocks);
+
+      ArrayNode statements = node.putArray("nested");
+      for (Map.Entry<String, Nested> entry : nested.entrySet()) {
+        ObjectNode statement = statements.addObject();
+        statement.put("query", entry.getKey());
+        statement.put("calls", entry.getValue().calls);
+        entry.getValue().shape.forEach(statement.putArray("shape")::add);
+        statement.put("totalCost", entry.getValue().totalCost);
+      }
+      return MAPPER.writeValueAsString(node) + "\n";
+    }
+
+    public List<String> shape() {
+      return shape;
+    }
+
+    public long sharedBlocks() {
+      return sharedBlocks;
+    }
+
+    // Cost of the statement itself plus that of every statement it ran, a function call alone is estimated as free
+    public double estimatedCost() {
+      double cost = totalCost;
+      for (Nested statement : nested.values()) {
+        cost += statement.calls * statement.totalCost;
+      }
+      return cost;
+    }
+  }
+
+  private static class Nested {
+    private final long calls;
+    private final List<String> shape;
+    private final double totalCost;
+
+    private Nested(long calls, List<String> shape, double totalCost) {
+      this.calls = calls;
+      this.shape = shape;
+      this.totalCost = totalCost;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package org.finra.samples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the plpgunit functions of the {@code unit_tests} schema concurrently instead of through the serial
+ * {@code unit_tests.begin()}. The functions are listed from the catalog and handed out to {@code -Dpostgres.sql.shards}
+ * workers (one per core by default); each worker owns a private copy of the template database, and every function runs
+ * in its own transaction that is rolled back afterwards.
+ */
+public final class PlpgunitRunner {
+  private static Logger LOGGER = LoggerFactory.getLogger(PlpgunitRunner.class);
+
+  private static final int SHARDS =
+      Integer.getInteger("postgres.sql.shards", Runtime.getRuntime().availableProcessors());
+
+  private PlpgunitRunner() {
+  }
+
+  public static List<String> functions(Connection conn) throws SQLException {
+    List<String> functions = new ArrayList<>();
+    try (Statement stmt = conn.createStatement()) {
+      // Same selection as unit_tests.begin(): argument-less functions returning test_result
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT p.proname FROM pg_proc p\n"
+              + "JOIN pg_namespace n ON n.oid = p.pronamespace\n"
+              + "WHERE n.nspname = 'unit_tests'\n"
+              + "AND p.pronargs = 0\n"
+              + "AND p.prorettype = 'test_result'::regtype\n"
+              + "ORDER BY p.proname")) {
+        while (rs.next()) {
+          functions.add(rs.getString(1));
+        }
+      }
+    }
+    return functions;
+  }
+
+  /**
+   * Runs the unit test functions of the template, or with {@code -Dpostgres.sql.selection=affected} only those
+   * {@link TestImpact} considers affected since the last run of {@code suite}.
+   */
+  public static List<Result> run(TemplateDatabase template, String suite) throws IOException, SQLException {
+    // The template itself refuses connections, the functions are listed from the first shard's copy
+    List<String> databases = new ArrayList<>();
+    databases.add(template.cloneDatabase());
+    try {
+      List<String> functions;
+      TestImpact impact;
+      try (Connection conn = DriverManager.getConnection(template.url(databases.get(0)), template.properties())) {
+        functions = functions(conn);
+        impact = TestImpact.analyze(conn, suite);
+      }
+      functions = impact.select(functions);
+
+      List<Result> results = Collections.emptyList();
+      if (!functions.isEmpty()) {
+        int shards = Math.max(1, Math.min(SHARDS, functions.size()));
+        while (databases.size() < shards) {
+          databases.add(template.cloneDatabase());
+        }
+        results = run(template, databases, functions);
+      }
+      impact.record(results);
+      return results;
+    }
+    finally {
+      for (String database : databases) {
+        template.dropDatabase(database);
+      }
+    }
+  }
+
+  private static List<Result> run(TemplateDatabase template, List<String> databases, Collection<String> functions)
+      throws SQLException {
+    // Shards run on their own threads, their timings are recorded against the caller's scope
+    String scope = PhaseTimings.currentScope();
+    Queue<String> pending = new ConcurrentLinkedQueue<>(functions);
+    Queue<Result> results = new ConcurrentLinkedQueue<>();
+
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(databases.size());
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int shard = 0; shard < databases.size(); shard++) {
+        int id = shard;
+        String url = template.url(databases.get(shard));
+        workers.add(executor.submit(() -> {
+          runShard(scope, url, template.properties(), id, pending, results);
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while running unit tests", e);
+    }
+    catch (ExecutionException e) {
+      throw e.getCause() instanceof SQLException
+          ? (SQLException) e.getCause()
+          : new SQLException("Unit test shard failed", e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    LOGGER.info("Ran {} unit test functions on {} shards in {} ms", results.size(), databases.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    List<Result> sorted = new ArrayList<>(results);
+    sorted.sort(Comparator.comparing(Result::functionName));
+    return sorted;
+  }
+
+  // Workers pull from a shared queue, so one slow function does not hold back a whole precomputed shard
+  private static void runShard(String scope, String url, Properties properties, int shard, Queue<String> pending,
+                               Queue<Result> results) throws SQLException {
+    try (Connection conn = DriverManager.getConnection(url, properties)) {
+      conn.setAutoCommit(false);
+
+      String function;
+      while ((function = pending.poll()) != null) {
+        Result result = execute(conn, shard, function);
+        LOGGER.info("{} on shard {} {} in {} ms", result.functionName(), shard,
+            result.passed() ? "passed" : "failed", result.elapsedMillis());
+        PhaseTimings.record(scope, "unit_tests." + function, result.elapsedNanos);
+        results.add(result);
+      }
+    }
+  }
+
+  private static Result execute(Connection conn, int shard, String function) throws SQLException {
+    String message;
+    boolean passed;
+
+    long start = System.nanoTime();
+    try (Statement stmt = conn.createStatement()) {
+      try (ResultSet rs = stmt.executeQuery("SELECT unit_tests.\"" + function.replace("\"", "\"\"") + "\"()")) {
+        rs.next();
+        message = rs.getString(1);
+        // plpgunit assertions return an empty message when they hold
+        passed = message == null || message.isEmpty();
+      }
+    }
+    catch (SQLException e) {
+      message = e.getMessage();
+      passed = false;
+    }
+    long elapsed = System.nanoTime() - start;
+
+    conn.rollback();
+    return new Result(function, message, passed, shard, elapsed);
+  }
+
+  public static class Result {
+    private final String functionName;
+    private final String message;
+    private final boolean passed;
+    private final int shard;
+    private final long elapsedNanos;
+
+    private Result(String functionName, String message, boolean passed, int shard, long elapsedNanos) {
+      this.functionName = functionName;
+      this.message = message;
+      this.passed = passed;
+      this.shard = shard;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public String functionName() {
+      return functionName;
+    }
+
+    public String message() {
+      return message;
+    }
+
+    public boolean passed() {
+      return passed;
+    }
+
+    public int shard() {
+      return shard;
+    }
+
+    public long elapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public Object[] toParameters() {
+      return new Object[]{functionName, message, passed, elapsedMillis()};
+    }
+  }
+}
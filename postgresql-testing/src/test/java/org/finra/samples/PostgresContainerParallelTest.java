@@ -6,45 +6,39 @@ import com.googlecode.junittoolbox.ParallelRunner;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.testcontainers.containers.PostgreSQLContainer;
 
 import java.io.IOException;
 import java.sql.*;
-import java.util.Properties;
 
 @RunWith(ParallelRunner.class)
 public class PostgresContainerParallelTest {
   private static Logger LOGGER = LoggerFactory.getLogger(PostgresContainerParallelTest.class);
 
-  private PostgreSQLContainer postgres;
-  private String url = null;
-  private Properties properties;
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
 
-  public void startPostgres() {
-    postgres = new PostgreSQLContainer("postgres:9.6.8");
-    postgres.start();
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
 
-    url = postgres.getJdbcUrl();
+  private SharedPostgresContainer.Lease lease;
+  private ConnectionPool pool;
 
-    properties = new Properties();
-    properties.setProperty("user", postgres.getUsername());
-    properties.setProperty("password", postgres.getPassword());
+  public void startPostgres() throws IOException, SQLException {
+    // The container is shared by the whole JVM, each test only leases its own schema
+    lease = SharedPostgresContainer.lease();
 
-    Runtime.getRuntime().addShutdownHook(
-            new Thread(() -> stopPostgres())
-    );
+    pool = lease.pool();
   }
 
-  public void stopPostgres() {
-    if (postgres != null) {
-      if (postgres.isRunning()) {
-        postgres.stop();
-      }
-      postgres.close();
+  public void stopPostgres() throws SQLException {
+    if (lease != null) {
+      lease.close();
     }
   }
 
@@ -61,24 +55,28 @@ public class PostgresContainerParallelTest {
   }
 
   public void setUp() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   public void tearDown() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   @Test
   public void testOne() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
         stmt.executeUpdate(
             "INSERT INTO test_values VALUES\n"
@@ -110,7 +108,7 @@ public class PostgresContainerParallelTest {
 
   @Test
   public void testTwo() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
         stmt.executeUpdate(
             "INSERT INTO test_values VALUES\n"
@@ -1,8 +1,7 @@
 package org.finra.samples;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
 import org.junit.Assert;
+import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -21,38 +20,44 @@ import java.util.Properties;
 public class PostgresContainerSqlTest {
   private static Logger LOGGER = LoggerFactory.getLogger(PostgresContainerSqlTest.class);
 
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
   private static PostgreSQLContainer postgres;
-  private static String url = null;
-  private static Properties properties;
+  private static TemplateDatabase template;
 
   private String functionName;
   private String message;
-  private String status;
-  private String executed;
-
-  public static void startPostgres() throws IOException {
-    postgres = new PostgreSQLContainer("postgres:9.6.8");
-    postgres.start();
+  private boolean passed;
+  private long elapsedMillis;
 
-    url = postgres.getJdbcUrl();
+  public static void startPostgres() throws IOException, SQLException {
+    postgres = PerformanceProfile.current().container("postgres:9.6.8");
+    try (PhaseTimings.Timing timing = PhaseTimings.time("container.start")) {
+      postgres.start();
+    }
 
-    properties = new Properties();
+    Properties properties = new Properties();
     properties.setProperty("user", postgres.getUsername());
     properties.setProperty("password", postgres.getPassword());
+    template = new TemplateDatabase(postgres.getContainerIpAddress(),
+        postgres.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT), properties, "unit_tests_template");
+
+    try (Connection conn = template.getMaintenanceConnection()) {
+      PerformanceProfile.current().record("container", conn);
+    }
+    StatementStats.register(postgres.getJdbcUrl(), properties);
 
     Runtime.getRuntime().addShutdownHook(
-        new Thread(() -> {
-          try {
-            stop();
-          }
-          catch (IOException | SQLException e) {
-            LOGGER.error("Error while stopping Postgres instance.");
-          }
-        })
+        new Thread(() -> stopPostgres())
     );
   }
 
   public static void stopPostgres() {
+    if (template != null) {
+      template.close();
+    }
+    StatementStats.unregister(postgres.getJdbcUrl());
     postgres.stop();
   }
 
@@ -61,74 +66,43 @@ public class PostgresContainerSqlTest {
     setUp();
   }
 
-  public static void stop() throws IOException, SQLException {
-    tearDown();
-    stopPostgres();
-  }
-
+  // Every shard runs on its own copy of this template, so the schema is loaded once for all of them
   public static void setUp() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
-      try (Statement stmt = conn.createStatement()) {
+    template.create(
         // Following installation file comes from https://github.com/mixerp/plpgunit (install folder)
-        stmt.executeUpdate(Resources.toString(Resources.getResource("install/1.install-unit-test.sql"), Charsets.UTF_8));
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
-        stmt.executeUpdate(Resources.toString(Resources.getResource("testFunctions/addOnePositiveTest.sql"), Charsets.UTF_8));
-        stmt.executeUpdate(Resources.toString(Resources.getResource("testFunctions/addOneNegativeTest.sql"), Charsets.UTF_8));
-      }
-    }
-  }
-
-  public static void tearDown() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
-      }
-    }
+        "install/1.install-unit-test.sql",
+        "scripts/setUp.sql",
+        "testFunctions/addOnePositiveTest.sql",
+        "testFunctions/addOneNegativeTest.sql");
   }
 
-  @Parameterized.Parameters(name = "{0}")
+  @Parameterized.Parameters(name = "{0} ({3} ms)")
   public static Collection data() throws IOException, SQLException {
-    start();
-    List<String[]> data = new ArrayList<>();
-
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeQuery("SELECT * FROM unit_tests.begin();");
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT function_name, message, status, executed FROM unit_tests.test_details;")) {
-          while (rs.next()) {
-            data.add(new String[]
-                {
-                    rs.getString(1),
-                    rs.getString(2),
-                    rs.getString(3),
-                    rs.getString(4)
-                }
-            );
-          }
-        }
+    // Parameters are collected before any rule applies, so the class scope is entered here
+    try (PhaseTimings.Scope scope = PhaseTimings.enter(PostgresContainerSqlTest.class.getName())) {
+      start();
+      List<Object[]> data = new ArrayList<>();
+
+      // Names the state TestImpact keeps between runs
+      String suite = PostgresContainerSqlTest.class.getSimpleName();
+      for (PlpgunitRunner.Result result : PlpgunitRunner.run(template, suite)) {
+        data.add(result.toParameters());
       }
-    }
-    catch (SQLException e) {
-      Assert.assertNull(e);
-    }
 
-    return data;
+      return data;
+    }
   }
 
-  public PostgresContainerSqlTest(String functionName, String message, String status,
-                                  String executed) {
+  public PostgresContainerSqlTest(String functionName, String message, boolean passed, long elapsedMillis) {
     this.functionName = functionName;
     this.message = message;
-    this.status = status;
-    this.executed = executed;
+    this.passed = passed;
+    this.elapsedMillis = elapsedMillis;
   }
 
   @Test
   public void test() {
-    LOGGER.info(functionName + " " + message);
-    Assert.assertEquals(functionName + " status", "t", this.status);
-    Assert.assertEquals(functionName + " executed", "t", this.executed);
+    LOGGER.info(functionName + " " + message + " (" + elapsedMillis + " ms)");
+    Assert.assertTrue(functionName + " failed: " + message, this.passed);
   }
 }
@@ -5,129 +5,84 @@ import com.google.common.io.Resources;
 import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.testcontainers.containers.PostgreSQLContainer;
 
 import java.io.IOException;
 import java.sql.*;
-import java.util.Properties;
 
 public class PostgresContainerTest {
   private static Logger LOGGER = LoggerFactory.getLogger(PostgresContainerTest.class);
 
-  private static PostgreSQLContainer postgres;
-  private static String url = null;
-  private static Properties properties;
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
 
-  public static void startPostgres() {
-    postgres = new PostgreSQLContainer("postgres:9.6.8");
-    postgres.start();
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
 
-    url = postgres.getJdbcUrl();
+  private static SharedPostgresContainer.Lease lease;
+  private static ConnectionPool pool;
 
-    properties = new Properties();
-    properties.setProperty("user", postgres.getUsername());
-    properties.setProperty("password", postgres.getPassword());
+  public static void startPostgres() throws IOException, SQLException {
+    lease = SharedPostgresContainer.lease();
 
-    Runtime.getRuntime().addShutdownHook(
-        new Thread(() -> stop())
-    );
+    pool = lease.pool();
   }
 
-  public static void stopPostgres() {
-    if (postgres != null) {
-      postgres.stop();
-      postgres.close();
+  public static void stopPostgres() throws SQLException {
+    if (lease != null) {
+      lease.close();
     }
   }
 
   @BeforeClass
-  public static void start() {
+  public static void start() throws IOException, SQLException {
     startPostgres();
   }
 
-  public static void stop() {
+  @AfterClass
+  public static void stop() throws SQLException {
     stopPostgres();
   }
 
   @Before
   public void setUp() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   @After
   public void tearDown() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   @Test
-  public void testOne() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(
-            "INSERT INTO test_values VALUES\n"
-                + "(1, 25),\n"
-                + "(2, 41);"
-        );
-
-        stmt.executeQuery(
-            "SELECT * FROM add_one();");
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 1")) {
-          while (rs.next()) {
-            Assert.assertEquals(26, rs.getInt(1));
-          }
-        }
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 2")) {
-          while (rs.next()) {
-            Assert.assertEquals(42, rs.getInt(1));
-          }
-        }
-      }
+  public void testOne() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      TableFixture.load("fixtures/addOne.json").run(conn);
     }
   }
 
   @Test
-  public void testTwo() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(
-            "INSERT INTO test_values VALUES\n"
-                + "(1, 50),\n"
-                + "(2, -10);"
-        );
-
-        stmt.executeQuery(
-            "SELECT * FROM add_one();");
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 1")) {
-          while (rs.next()) {
-            Assert.assertEquals(51, rs.getInt(1));
-          }
-        }
+  public void testTwo() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      TableFixture.load("fixtures/addOneNegative.json").run(conn);
+    }
+  }
 
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 2")) {
-          while (rs.next()) {
-            Assert.assertEquals(-9, rs.getInt(1));
-          }
-        }
-      }
+  @Test
+  public void testCsv() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      TableFixture.load("fixtures/addOneCsv.json").run(conn);
     }
   }
 }
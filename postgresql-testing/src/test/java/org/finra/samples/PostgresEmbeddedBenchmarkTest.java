@@ -0,0 +1,114 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.*;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the row-by-row {@code add_one()} with its set-based rewrite. Raise the volume with e.g.
+ * {@code -Dpostgres.benchmark.rows=1000,100000,1000000}; the numbers end up in {@code function-benchmark.csv}.
+ */
+public class PostgresEmbeddedBenchmarkTest {
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
+
+  private static final List<String> FUNCTIONS = Arrays.asList("add_one", "add_one_set");
+
+  private static InstancePool.Instance instance;
+  private static ConnectionPool pool;
+
+  public static void startPostgres() throws IOException {
+    instance = InstancePool.lease();
+    pool = new ConnectionPool(instance.url(), instance.properties());
+  }
+
+  public static void stopPostgres() {
+    if (pool != null) {
+      pool.close();
+    }
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  @BeforeClass
+  public static void start() throws IOException {
+    startPostgres();
+  }
+
+  @AfterClass
+  public static void stop() {
+    stopPostgres();
+  }
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+          stmt.executeUpdate(Resources.toString(Resources.getResource("benchmarks/addOneSetBased.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate("DROP FUNCTION IF EXISTS add_one_set();");
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSetBasedMatchesLoop() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      CopyLoader.load(conn, Dataset.generate("test_values", 1000, i -> new Object[]{i, i % 1000}, "id", "value"));
+
+      conn.setAutoCommit(false);
+      try (Statement stmt = conn.createStatement()) {
+        long[] sums = new long[FUNCTIONS.size()];
+        for (int i = 0; i < FUNCTIONS.size(); i++) {
+          stmt.executeQuery("SELECT * FROM " + FUNCTIONS.get(i) + "();").close();
+          try (ResultSet rs = stmt.executeQuery("SELECT sum(value - id % 1000) FROM test_values")) {
+            Assert.assertTrue(rs.next());
+            sums[i] = rs.getLong(1);
+          }
+          conn.rollback();
+        }
+        Assert.assertEquals(1000, sums[0]);
+        Assert.assertEquals(sums[0], sums[1]);
+      }
+      finally {
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  @Test
+  public void testBenchmark() throws IOException, SQLException {
+    FunctionBenchmark benchmark = FunctionBenchmark.configured(pool);
+
+    // add_one() looks rows up by id, production tables have an index for that
+    List<FunctionBenchmark.Result> results = benchmark.run(FUNCTIONS, "CREATE INDEX ON test_values (id)");
+
+    Assert.assertFalse(results.isEmpty());
+    for (FunctionBenchmark.Result result : results) {
+      Assert.assertTrue(result.iterations() > 0);
+      Assert.assertTrue(result.opsPerSecond() > 0);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.Arrays;
+
+public class PostgresEmbeddedBulkLoadTest {
+  private static Logger LOGGER = LoggerFactory.getLogger(PostgresEmbeddedBulkLoadTest.class);
+
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
+
+  // Raise with -Dpostgres.bulk.rows=1000000 to exercise add_one() on a realistic volume
+  private static final long ROWS = Long.getLong("postgres.bulk.rows", 100000L);
+
+  private static InstancePool.Instance instance;
+  private static ConnectionPool pool;
+
+  public static void startPostgres() throws IOException {
+    instance = InstancePool.lease();
+    pool = new ConnectionPool(instance.url(), instance.properties());
+  }
+
+  public static void stopPostgres() {
+    if (pool != null) {
+      pool.close();
+    }
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  @BeforeClass
+  public static void start() throws IOException {
+    startPostgres();
+  }
+
+  @AfterClass
+  public static void stop() {
+    stopPostgres();
+  }
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testGeneratedRows() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      Assert.assertEquals(ROWS, CopyLoader.load(conn,
+          Dataset.generate("test_values", ROWS, i -> new Object[]{i, i % 1000}, "id", "value")));
+
+      try (Statement stmt = conn.createStatement()) {
+        // add_one() updates row by row on id, without an index that is quadratic in the table size
+        stmt.executeUpdate("CREATE INDEX ON test_values (id);");
+        stmt.executeUpdate("ANALYZE test_values;");
+
+        stmt.executeQuery(
+            "SELECT * FROM add_one();");
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT count(*), sum(value - id % 1000) FROM test_values")) {
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(ROWS, rs.getLong(1));
+          Assert.assertEquals(ROWS, rs.getLong(2));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCsvResource() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      Assert.assertEquals(5, CopyLoader.load(conn,
+          Dataset.csv("test_values", "datasets/test_values.csv", "id", "value")));
+
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeQuery(
+            "SELECT * FROM add_one();");
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values\n"
+                + "ORDER BY id")) {
+          for (int expected : new int[]{26, 42, 0, 1, 100}) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(expected, rs.getInt(1));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCollectionRows() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      Assert.assertEquals(3, CopyLoader.load(conn, Dataset.rows("test_values",
+          Arrays.asList(new Object[]{1, 50}, new Object[]{2, -10}, new Object[]{3, null}), "id", "value")));
+
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeQuery(
+            "SELECT * FROM add_one();");
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT id, value FROM test_values\n"
+                + "ORDER BY id")) {
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(51, rs.getInt(2));
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(-9, rs.getInt(2));
+          Assert.assertTrue(rs.next());
+          rs.getInt(2);
+          Assert.assertTrue(rs.wasNull());
+        }
+      }
+    }
+  }
+}
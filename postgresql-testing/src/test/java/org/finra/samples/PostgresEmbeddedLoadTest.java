@@ -0,0 +1,114 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.*;
+
+import java.io.IOException;
+import java.sql.*;
+
+/**
+ * Runs {@code add_one()} and its set-based rewrite from many sessions at once on the same table. Tune with
+ * {@code -Dpostgres.load.sessions} and {@code -Dpostgres.load.durationMs}; see {@link ConcurrentLoad}.
+ */
+public class PostgresEmbeddedLoadTest {
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
+
+  private static final long ROWS = 1000;
+
+  // Enough sessions that add_one() calls always overlap, whatever -Dpostgres.load.sessions says
+  private static final int SESSIONS = Math.max(4, ConcurrentLoad.configuredSessions());
+
+  private static InstancePool.Instance instance;
+  private static ConnectionPool pool;
+
+  public static void startPostgres() throws IOException {
+    instance = InstancePool.lease();
+    // One connection per session and one for the lock sampler
+    pool = new ConnectionPool(instance.url(), instance.properties(), SESSIONS + 1);
+  }
+
+  public static void stopPostgres() {
+    if (pool != null) {
+      pool.close();
+    }
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  @BeforeClass
+  public static void start() throws IOException {
+    startPostgres();
+  }
+
+  @AfterClass
+  public static void stop() {
+    stopPostgres();
+  }
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+          stmt.executeUpdate(Resources.toString(Resources.getResource("benchmarks/addOneSetBased.sql"), Charsets.UTF_8));
+        }
+        stmt.executeUpdate("CREATE INDEX ON test_values (id);");
+      }
+
+      CopyLoader.load(conn, Dataset.generate("test_values", ROWS, i -> new Object[]{i, i % 1000}, "id", "value"));
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate("DROP FUNCTION IF EXISTS add_one_set();");
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAddOneUnderLoad() throws IOException, SQLException {
+    ConcurrentLoad.Result result = ConcurrentLoad.configured(pool, SESSIONS).run("add_one",
+        "SELECT * FROM add_one();");
+
+    // Calls queue on each other's row locks, and the loop then writes back values it read before the row was locked,
+    // so concurrent calls overwrite each other's increments
+    Assert.assertTrue(result.calls() > 1);
+    Assert.assertTrue("No session waited for a lock: " + result, result.lockWaitRatio() > 0);
+    Assert.assertTrue("No increment was lost: " + result, increments() < ROWS * result.calls());
+  }
+
+  @Test
+  public void testSetBasedAddOneUnderLoad() throws IOException, SQLException {
+    ConcurrentLoad.Result result = ConcurrentLoad.configured(pool, SESSIONS).run("add_one_set",
+        "SELECT * FROM add_one_set();");
+
+    // A single UPDATE re-reads a row after waiting for its lock, no increment is lost
+    Assert.assertTrue(result.calls() > 0);
+    Assert.assertEquals(ROWS * result.calls(), increments());
+  }
+
+  private static long increments() throws SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT sum(value - id % 1000) FROM test_values")) {
+          Assert.assertTrue(rs.next());
+          return rs.getLong(1);
+        }
+      }
+    }
+  }
+}
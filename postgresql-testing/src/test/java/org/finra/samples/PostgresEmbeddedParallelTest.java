@@ -3,97 +3,39 @@ package org.finra.samples;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import com.googlecode.junittoolbox.ParallelRunner;
-import de.flapdoodle.embed.process.io.file.Files;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.yandex.qatools.embed.postgresql.Command;
-import ru.yandex.qatools.embed.postgresql.PostgresExecutable;
-import ru.yandex.qatools.embed.postgresql.PostgresProcess;
-import ru.yandex.qatools.embed.postgresql.PostgresStarter;
-import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Credentials;
-import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Net;
-import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Storage;
-import ru.yandex.qatools.embed.postgresql.config.AbstractPostgresConfig.Timeout;
-import ru.yandex.qatools.embed.postgresql.config.PostgresConfig;
-import ru.yandex.qatools.embed.postgresql.config.RuntimeConfigBuilder;
-import ru.yandex.qatools.embed.postgresql.ext.SubdirTempDir;
 
 import java.io.IOException;
 import java.sql.*;
-import java.util.Properties;
-
-import static java.lang.String.format;
 
 @RunWith(ParallelRunner.class)
 public class PostgresEmbeddedParallelTest {
   private static Logger LOGGER = LoggerFactory.getLogger(PostgresEmbeddedSqlTest.class);
 
-  private PostgresProcess postgres;
-  private String url = null;
-  private static PostgresExecutable exec;
-  private Properties properties;
-
-  @BeforeClass
-  public static void getPostgres() throws IOException {
-    PostgresStarter<PostgresExecutable, PostgresProcess> runtime = PostgresStarter.getInstance(
-        new RuntimeConfigBuilder().defaults(Command.Postgres).build());
-
-    PostgresConfig config = new PostgresConfig(
-        () -> "9.6.3-1",
-        new Net(),
-        new Storage("dbname"),
-        new Timeout(),
-        new Credentials("username", "password"));
-
-    exec = runtime.prepare(config);
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
 
-    Runtime.getRuntime().addShutdownHook(
-        new Thread(() -> removePostgres())
-    );
-  }
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
 
-  @AfterClass
-  public static void removePostgres() {
-    if (exec != null) {
-      exec.stop();
-    }
-    Files.forceDelete(SubdirTempDir.defaultInstance().asFile());
-  }
+  private InstancePool.Instance instance;
+  private ConnectionPool pool;
 
+  // Every test leases a whole instance of its own; the pool bounds how many run at once
   public void startPostgres() throws IOException {
-    PostgresStarter<PostgresExecutable, PostgresProcess> runtime = PostgresStarter.getInstance(
-        new RuntimeConfigBuilder().defaults(Command.Postgres).build());
-
-    PostgresConfig config = new PostgresConfig(
-        () -> "9.6.3-1",
-        new Net(),
-        new Storage("dbname"),
-        new Timeout(),
-        new Credentials("username", "password"));
-
-    PostgresExecutable exec = runtime.prepare(config);
-
-    postgres = exec.start();
-
-    Runtime.getRuntime().addShutdownHook(
-        new Thread(() -> stopPostgres())
-    );
-
-    url = format("jdbc:postgresql://%s:%s/%s",
-        config.net().host(),
-        config.net().port(),
-        config.storage().dbName());
-
-    properties = new Properties();
-    properties.setProperty("user", config.credentials().username());
-    properties.setProperty("password", config.credentials().password());
+    instance = InstancePool.lease();
+    pool = new ConnectionPool(instance.url(), instance.properties());
   }
 
   public void stopPostgres() {
-    if (postgres != null && postgres.isProcessRunning()) {
-      postgres.stop();
+    if (pool != null) {
+      pool.close();
+    }
+    if (instance != null) {
+      instance.close();
     }
   }
 
@@ -110,24 +52,28 @@ public class PostgresEmbeddedParallelTest {
   }
 
   public void setUp() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   public void tearDown() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   @Test
   public void testOne() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
         stmt.executeUpdate(
             "INSERT INTO test_values VALUES\n"
@@ -159,7 +105,7 @@ public class PostgresEmbeddedParallelTest {
 
   @Test
   public void testTwo() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url, properties)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
         stmt.executeUpdate(
             "INSERT INTO test_values VALUES\n"
@@ -0,0 +1,112 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.*;
+
+import java.io.IOException;
+import java.sql.*;
+
+/**
+ * Guards the plans of the statements under test against {@code src/test/resources/plans}. Run with
+ * {@code -Dpostgres.plans=fail} to turn regressions into failures, or {@code -Dpostgres.plans=record} after an
+ * intended change.
+ */
+public class PostgresEmbeddedPlanTest {
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
+
+  // Baselines were recorded with this many rows, changing it changes the plans
+  private static final long ROWS = 1000;
+
+  private static InstancePool.Instance instance;
+  private static ConnectionPool pool;
+
+  public static void startPostgres() throws IOException {
+    instance = InstancePool.lease();
+    pool = new ConnectionPool(instance.url(), instance.properties());
+  }
+
+  public static void stopPostgres() {
+    if (pool != null) {
+      pool.close();
+    }
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  @BeforeClass
+  public static void start() throws IOException {
+    startPostgres();
+  }
+
+  @AfterClass
+  public static void stop() {
+    stopPostgres();
+  }
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
+        stmt.executeUpdate("CREATE INDEX test_values_id ON test_values (id);");
+      }
+
+      CopyLoader.load(conn, Dataset.generate("test_values", ROWS, i -> new Object[]{i, i % 1000}, "id", "value"));
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeUpdate("VACUUM ANALYZE test_values;");
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLookupById() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      PlanRegression.check(conn, "test_values_by_id",
+          "SELECT value FROM test_values WHERE id = 26");
+
+      try (Statement stmt = conn.createStatement()) {
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values WHERE id = 26")) {
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(26, rs.getInt(1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAddOne() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      PlanRegression.check(conn, "add_one",
+          "SELECT * FROM add_one()");
+
+      try (Statement stmt = conn.createStatement()) {
+        // The plan was captured in a rolled back transaction, the data is still untouched
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT sum(value - id % 1000) FROM test_values")) {
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(0, rs.getLong(1));
+        }
+      }
+    }
+  }
+}
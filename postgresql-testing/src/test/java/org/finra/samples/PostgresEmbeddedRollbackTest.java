@@ -0,0 +1,150 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+
+public class PostgresEmbeddedRollbackTest {
+  private static Logger LOGGER = LoggerFactory.getLogger(PostgresEmbeddedRollbackTest.class);
+
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
+
+  private static InstancePool.Instance instance;
+  private static ConnectionPool pool;
+
+  @Rule
+  public RollbackIsolation transaction = new RollbackIsolation(pool,
+      "scripts/tearDown.sql", "scripts/setUp.sql");
+
+  public static void startPostgres() throws IOException {
+    instance = InstancePool.lease();
+    pool = new ConnectionPool(instance.url(), instance.properties());
+  }
+
+  public static void stopPostgres() {
+    if (pool != null) {
+      pool.close();
+    }
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  @BeforeClass
+  public static void start() throws IOException, SQLException {
+    startPostgres();
+    setUp();
+  }
+
+  @AfterClass
+  public static void stop() {
+    stopPostgres();
+  }
+
+  // The schema is loaded once, every test runs in a transaction that RollbackIsolation rolls back
+  public static void setUp() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testOne() throws SQLException {
+    try (Statement stmt = transaction.getConnection().createStatement()) {
+      stmt.executeUpdate(
+          "INSERT INTO test_values VALUES\n"
+              + "(1, 25),\n"
+              + "(2, 41);"
+      );
+
+      stmt.executeQuery(
+          "SELECT * FROM add_one();");
+
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT value FROM test_values\n"
+              + "WHERE id = 1")) {
+        while (rs.next()) {
+          Assert.assertEquals(26, rs.getInt(1));
+        }
+      }
+
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT value FROM test_values\n"
+              + "WHERE id = 2")) {
+        while (rs.next()) {
+          Assert.assertEquals(42, rs.getInt(1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTwo() throws SQLException {
+    try (Statement stmt = transaction.getConnection().createStatement()) {
+      stmt.executeUpdate(
+          "INSERT INTO test_values VALUES\n"
+              + "(1, 50),\n"
+              + "(2, -10);"
+      );
+
+      stmt.executeQuery(
+          "SELECT * FROM add_one();");
+
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT value FROM test_values\n"
+              + "WHERE id = 1")) {
+        while (rs.next()) {
+          Assert.assertEquals(51, rs.getInt(1));
+        }
+      }
+
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT value FROM test_values\n"
+              + "WHERE id = 2")) {
+        while (rs.next()) {
+          Assert.assertEquals(-9, rs.getInt(1));
+        }
+      }
+    }
+  }
+
+  @Test
+  @RollbackIsolation.Commits
+  public void testCommitted() throws SQLException {
+    Connection conn = transaction.getConnection();
+    try (Statement stmt = conn.createStatement()) {
+      stmt.executeUpdate(
+          "INSERT INTO test_values VALUES\n"
+              + "(1, 0);"
+      );
+
+      stmt.executeQuery(
+          "SELECT * FROM add_one();");
+    }
+
+    // Work done in auto-commit mode is visible to every other session
+    try (Connection other = pool.getConnection()) {
+      try (Statement stmt = other.createStatement()) {
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values\n"
+                + "WHERE id = 1")) {
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(1, rs.getInt(1));
+        }
+      }
+    }
+  }
+}
@@ -1,58 +1,83 @@
 package org.finra.samples;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
-import de.flapdoodle.embed.process.io.file.Files;
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.yandex.qatools.embed.postgresql.EmbeddedPostgres;
-import ru.yandex.qatools.embed.postgresql.ext.SubdirTempDir;
+import ru.yandex.qatools.embed.postgresql.util.SocketUtil;
 
 import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Properties;
 
 @RunWith(Parameterized.class)
 public class PostgresEmbeddedSqlTest {
   private static Logger LOGGER = LoggerFactory.getLogger(PostgresEmbeddedSqlTest.class);
 
-  private static EmbeddedPostgres postgres;
-  private static String url = null;
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  private static final String[] INSTALL_SCRIPTS = {
+      // Following installation file comes from https://github.com/mixerp/plpgunit (install folder)
+      "install/1.install-unit-test.sql",
+      "scripts/setUp.sql",
+      "testFunctions/addOnePositiveTest.sql",
+      "testFunctions/addOneNegativeTest.sql"
+  };
+
+  private static InstancePool.Instance instance;
+  private static WarmClusterCache cache;
+  private static TemplateDatabase template;
 
   private String functionName;
   private String message;
-  private String status;
-  private String executed;
-
-  public static void startPostgres() throws IOException {
-    postgres = new EmbeddedPostgres(() -> "9.6.3-1");
-    url = postgres.start("localhost", 5433, "dbname", "username", "password");
-
-    Runtime.getRuntime().addShutdownHook(
-        new Thread(() -> {
-          try {
-            stop();
-          }
-          catch (IOException | SQLException e) {
-            LOGGER.error("Error while stopping Postgres instance.");
-          }
-        })
-    );
+  private boolean passed;
+  private long elapsedMillis;
+
+  public static void startPostgres() throws IOException, SQLException {
+    if (WarmClusterCache.isEnabled()) {
+      // The cached snapshot already has every install script loaded
+      int port = SocketUtil.findFreePort();
+      cache = new WarmClusterCache(() -> "9.6.3-1", INSTALL_SCRIPTS);
+      cache.start("localhost", port, "dbname", "username", "password");
+
+      Properties properties = new Properties();
+      properties.setProperty("user", "username");
+      properties.setProperty("password", "password");
+      template = new TemplateDatabase("localhost", port, properties, "unit_tests_template");
+
+      try (Connection conn = template.getMaintenanceConnection()) {
+        PerformanceProfile.current().record("embedded", conn);
+      }
+
+      Runtime.getRuntime().addShutdownHook(
+          new Thread(() -> stopPostgres())
+      );
+    }
+    else {
+      instance = InstancePool.lease();
+      template = new TemplateDatabase(instance.host(), instance.port(), instance.properties(), "unit_tests_template");
+    }
   }
 
   @AfterClass
   public static void stopPostgres() {
-    if (postgres != null && postgres.getProcess().isPresent() && postgres.getProcess().get().isProcessRunning()) {
-      postgres.stop();
+    if (template != null) {
+      template.close();
+    }
+    if (cache != null) {
+      cache.stop();
+    }
+    if (instance != null) {
+      instance.close();
     }
-    Files.forceDelete(SubdirTempDir.defaultInstance().asFile());
   }
 
   public static void start() throws IOException, SQLException {
@@ -60,74 +85,43 @@ public class PostgresEmbeddedSqlTest {
     setUp();
   }
 
-  public static void stop() throws IOException, SQLException {
-    tearDown();
-    stopPostgres();
-  }
-
+  // Every shard runs on its own copy of this template, so the schema is loaded once for all of them
   public static void setUp() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url)) {
-      try (Statement stmt = conn.createStatement()) {
-        // Following installation file comes from https://github.com/mixerp/plpgunit (install folder)
-        stmt.executeUpdate(Resources.toString(Resources.getResource("install/1.install-unit-test.sql"), Charsets.UTF_8));
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
-        stmt.executeUpdate(Resources.toString(Resources.getResource("testFunctions/addOnePositiveTest.sql"), Charsets.UTF_8));
-        stmt.executeUpdate(Resources.toString(Resources.getResource("testFunctions/addOneNegativeTest.sql"), Charsets.UTF_8));
-      }
+    if (cache != null) {
+      template.createFrom("dbname");
     }
-  }
-
-  public static void tearDown() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
-      }
+    else {
+      template.create(INSTALL_SCRIPTS);
     }
   }
 
-  @Parameterized.Parameters(name = "{0}")
+  @Parameterized.Parameters(name = "{0} ({3} ms)")
   public static Collection data() throws IOException, SQLException {
-    start();
-    List<String[]> data = new ArrayList<>();
-
-    try (Connection conn = DriverManager.getConnection(url)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeQuery("SELECT * FROM unit_tests.begin();");
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT function_name, message, status, executed FROM unit_tests.test_details;")) {
-          while (rs.next()) {
-            data.add(new String[]
-                {
-                    rs.getString(1),
-                    rs.getString(2),
-                    rs.getString(3),
-                    rs.getString(4)
-                }
-            );
-          }
-        }
+    // Parameters are collected before any rule applies, so the class scope is entered here
+    try (PhaseTimings.Scope scope = PhaseTimings.enter(PostgresEmbeddedSqlTest.class.getName())) {
+      start();
+      List<Object[]> data = new ArrayList<>();
+
+      // Names the state TestImpact keeps between runs
+      String suite = PostgresEmbeddedSqlTest.class.getSimpleName();
+      for (PlpgunitRunner.Result result : PlpgunitRunner.run(template, suite)) {
+        data.add(result.toParameters());
       }
-    }
-    catch (SQLException e) {
-      Assert.assertNull(e);
-    }
 
-    return data;
+      return data;
+    }
   }
 
-  public PostgresEmbeddedSqlTest(String functionName, String message, String status,
-                                 String executed) {
+  public PostgresEmbeddedSqlTest(String functionName, String message, boolean passed, long elapsedMillis) {
     this.functionName = functionName;
     this.message = message;
-    this.status = status;
-    this.executed = executed;
+    this.passed = passed;
+    this.elapsedMillis = elapsedMillis;
   }
 
   @Test
   public void test() {
-    LOGGER.info(functionName + " " + message);
-    Assert.assertEquals(functionName + " status", "t", this.status);
-    Assert.assertEquals(functionName + " executed", "t", this.executed);
+    LOGGER.info(functionName + " " + message + " (" + elapsedMillis + " ms)");
+    Assert.assertTrue(functionName + " failed: " + message, this.passed);
   }
 }
@@ -0,0 +1,126 @@
+package org.finra.samples;
+
+import com.googlecode.junittoolbox.ParallelRunner;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.Properties;
+
+@RunWith(ParallelRunner.class)
+public class PostgresEmbeddedTemplateParallelTest {
+  private static Logger LOGGER = LoggerFactory.getLogger(PostgresEmbeddedTemplateParallelTest.class);
+
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
+
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
+
+  private static InstancePool.Instance instance;
+  private static TemplateDatabase template;
+  private static Properties properties;
+
+  private String database;
+  private ConnectionPool pool;
+
+  @BeforeClass
+  public static void startPostgres() throws IOException, SQLException {
+    // One cluster for the whole class, every test gets its own copy of the template database
+    instance = InstancePool.lease();
+    properties = instance.properties();
+
+    template = new TemplateDatabase(instance.host(), instance.port(), properties, "template_test");
+    template.create("scripts/setUp.sql");
+  }
+
+  @AfterClass
+  public static void stopPostgres() {
+    if (template != null) {
+      template.close();
+    }
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  @Before
+  public void cloneDatabase() throws SQLException {
+    database = template.cloneDatabase();
+    pool = new ConnectionPool(template.url(database), properties);
+  }
+
+  @After
+  public void dropDatabase() throws SQLException {
+    // DROP DATABASE fails while any session is still connected to the copy
+    pool.close();
+    template.dropDatabase(database);
+  }
+
+  @Test
+  public void testOne() throws SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeUpdate(
+            "INSERT INTO test_values VALUES\n"
+                + "(1, 25),\n"
+                + "(2, 41);"
+        );
+
+        stmt.executeQuery(
+            "SELECT * FROM add_one();");
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values\n"
+                + "WHERE id = 1")) {
+          while (rs.next()) {
+            Assert.assertEquals(26, rs.getInt(1));
+          }
+        }
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values\n"
+                + "WHERE id = 2")) {
+          while (rs.next()) {
+            Assert.assertEquals(42, rs.getInt(1));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTwo() throws SQLException {
+    try (Connection conn = pool.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeUpdate(
+            "INSERT INTO test_values VALUES\n"
+                + "(1, 50),\n"
+                + "(2, -10);"
+        );
+
+        stmt.executeQuery(
+            "SELECT * FROM add_one();");
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values\n"
+                + "WHERE id = 1")) {
+          while (rs.next()) {
+            Assert.assertEquals(51, rs.getInt(1));
+          }
+        }
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT value FROM test_values\n"
+                + "WHERE id = 2")) {
+          while (rs.next()) {
+            Assert.assertEquals(-9, rs.getInt(1));
+          }
+        }
+      }
+    }
+  }
+}
@@ -2,40 +2,63 @@ package org.finra.samples;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
-import de.flapdoodle.embed.process.io.file.Files;
 import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.yandex.qatools.embed.postgresql.EmbeddedPostgres;
-import ru.yandex.qatools.embed.postgresql.ext.SubdirTempDir;
+import ru.yandex.qatools.embed.postgresql.util.SocketUtil;
 
 import java.io.IOException;
 import java.sql.*;
+import java.util.Properties;
 
 public class PostgresEmbeddedTest {
   private static Logger LOGGER = LoggerFactory.getLogger(PostgresEmbeddedSqlTest.class);
 
-  private static EmbeddedPostgres postgres;
-  private static String url = null;
+  @ClassRule
+  public static PhaseTimings classTimings = new PhaseTimings();
 
-  public static void startPostgres() throws IOException {
-    postgres = new EmbeddedPostgres(() -> "9.6.3-1");
-    url = postgres.start("localhost", 5433, "dbname", "username", "password");
+  @Rule
+  public PhaseTimings timings = new PhaseTimings();
 
-    Runtime.getRuntime().addShutdownHook(
-        new Thread(() -> stop())
-    );
+  private static InstancePool.Instance instance;
+  private static WarmClusterCache cache;
+  private static ConnectionPool pool;
+
+  public static void startPostgres() throws IOException, SQLException {
+    if (WarmClusterCache.isEnabled()) {
+      cache = new WarmClusterCache(() -> "9.6.3-1");
+      String url = cache.start("localhost", SocketUtil.findFreePort(), "dbname", "username", "password");
+      pool = new ConnectionPool(url, new Properties());
+
+      try (Connection conn = pool.getConnection()) {
+        PerformanceProfile.current().record("embedded", conn);
+      }
+
+      Runtime.getRuntime().addShutdownHook(
+          new Thread(() -> stop())
+      );
+    }
+    else {
+      // Started in the background by the JVM-wide pool, usually before this class asks for it
+      instance = InstancePool.lease();
+      pool = new ConnectionPool(instance.url(), instance.properties());
+    }
   }
 
   public static void stopPostgres() {
-    if (postgres != null && postgres.getProcess().isPresent() && postgres.getProcess().get().isProcessRunning()) {
-      postgres.stop();
+    if (pool != null) {
+      pool.close();
+    }
+    if (cache != null) {
+      cache.stop();
+    }
+    if (instance != null) {
+      instance.close();
     }
-    Files.forceDelete(SubdirTempDir.defaultInstance().asFile());
   }
 
   @BeforeClass
-  public static void start() throws IOException {
+  public static void start() throws IOException, SQLException {
     startPostgres();
   }
 
@@ -46,83 +69,44 @@ public class PostgresEmbeddedTest {
 
   @Before
   public void setUp() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("setUp.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/setUp.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   @After
   public void tearDown() throws IOException, SQLException {
-    try (Connection conn = DriverManager.getConnection(url)) {
+    try (Connection conn = pool.getConnection()) {
       try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        try (PhaseTimings.Timing timing = PhaseTimings.time("tearDown.sql")) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource("scripts/tearDown.sql"), Charsets.UTF_8));
+        }
       }
     }
   }
 
   @Test
-  public void testOne() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(
-            "INSERT INTO test_values VALUES\n"
-                + "(1, 25),\n"
-                + "(2, 41);"
-        );
-
-        stmt.executeQuery(
-            "SELECT * FROM add_one();");
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 1")) {
-          while (rs.next()) {
-            Assert.assertEquals(26, rs.getInt(1));
-          }
-        }
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 2")) {
-          while (rs.next()) {
-            Assert.assertEquals(42, rs.getInt(1));
-          }
-        }
-      }
+  public void testOne() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      TableFixture.load("fixtures/addOne.json").run(conn);
     }
   }
 
   @Test
-  public void testTwo() throws SQLException {
-    try (Connection conn = DriverManager.getConnection(url)) {
-      try (Statement stmt = conn.createStatement()) {
-        stmt.executeUpdate(
-            "INSERT INTO test_values VALUES\n"
-                + "(1, 50),\n"
-                + "(2, -10);"
-        );
-
-        stmt.executeQuery(
-            "SELECT * FROM add_one();");
-
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 1")) {
-          while (rs.next()) {
-            Assert.assertEquals(51, rs.getInt(1));
-          }
-        }
+  public void testTwo() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      TableFixture.load("fixtures/addOneNegative.json").run(conn);
+    }
+  }
 
-        try (ResultSet rs = stmt.executeQuery(
-            "SELECT value FROM test_values\n"
-                + "WHERE id = 2")) {
-          while (rs.next()) {
-            Assert.assertEquals(-9, rs.getInt(1));
-          }
-        }
-      }
+  @Test
+  public void testCsv() throws IOException, SQLException {
+    try (Connection conn = pool.getConnection()) {
+      TableFixture.load("fixtures/addOneCsv.json").run(conn);
     }
   }
 }
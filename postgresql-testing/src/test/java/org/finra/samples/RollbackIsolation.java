@@ -0,0 +1,78 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Runs every test on a connection pinned from a {@link ConnectionPool} inside a transaction that is rolled back
+ * afterwards, so the schema only has to be loaded once per class. Tests annotated with {@link Commits} run in
+ * auto-commit mode instead and the reset scripts are replayed after them to restore the schema.
+ */
+public class RollbackIsolation implements TestRule {
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface Commits {
+  }
+
+  private final ConnectionPool pool;
+  private final String[] resetScripts;
+
+  private Connection connection;
+
+  public RollbackIsolation(ConnectionPool pool, String... resetScripts) {
+    this.pool = pool;
+    this.resetScripts = resetScripts;
+  }
+
+  public Connection getConnection() {
+    return connection;
+  }
+
+  @Override
+  public Statement apply(Statement base, Description description) {
+    boolean commits = description.getAnnotation(Commits.class) != null;
+
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        connection = pool.getConnection();
+        try {
+          connection.setAutoCommit(commits);
+          base.evaluate();
+        }
+        finally {
+          try {
+            if (commits) {
+              reset();
+            }
+            else {
+              connection.rollback();
+            }
+          }
+          finally {
+            connection.close();
+          }
+        }
+      }
+    };
+  }
+
+  private void reset() throws IOException, SQLException {
+    try (java.sql.Statement stmt = connection.createStatement()) {
+      for (String script : resetScripts) {
+        stmt.executeUpdate(Resources.toString(Resources.getResource(script), Charsets.UTF_8));
+      }
+    }
+  }
+}
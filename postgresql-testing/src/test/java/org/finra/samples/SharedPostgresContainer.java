@@ -0,0 +1,126 @@
+package org.finra.samples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One PostgreSQL container for the whole JVM. Tests lease a private schema from it instead of starting their own
+ * container; the schema is put first on the lease's {@code search_path} and dropped when the lease is closed. Each
+ * lease comes with its own {@link ConnectionPool}, so tests reuse connections instead of opening one per statement.
+ */
+public final class SharedPostgresContainer {
+  private static Logger LOGGER = LoggerFactory.getLogger(SharedPostgresContainer.class);
+
+  private static final AtomicInteger leases = new AtomicInteger();
+  private static PostgreSQLContainer postgres;
+  private static ConnectionPool admin;
+
+  private SharedPostgresContainer() {
+  }
+
+  public static synchronized PostgreSQLContainer getInstance() throws IOException, SQLException {
+    if (postgres == null) {
+      postgres = PerformanceProfile.current().container("postgres:9.6.8");
+      try (PhaseTimings.Timing timing = PhaseTimings.time("container.start")) {
+        postgres.start();
+      }
+      LOGGER.info("Started shared Postgres container at {}", postgres.getJdbcUrl());
+
+      Runtime.getRuntime().addShutdownHook(
+          new Thread(() -> stopPostgres())
+      );
+
+      Properties properties = new Properties();
+      properties.setProperty("user", postgres.getUsername());
+      properties.setProperty("password", postgres.getPassword());
+      admin = new ConnectionPool(postgres.getJdbcUrl(), properties);
+
+      try (Connection conn = admin.getConnection()) {
+        PerformanceProfile.current().record("container", conn);
+      }
+      StatementStats.register(postgres.getJdbcUrl(), properties);
+    }
+    return postgres;
+  }
+
+  public static synchronized void stopPostgres() {
+    if (admin != null) {
+      admin.close();
+      admin = null;
+    }
+    if (postgres != null) {
+      StatementStats.unregister(postgres.getJdbcUrl());
+      if (postgres.isRunning()) {
+        postgres.stop();
+      }
+      postgres.close();
+      postgres = null;
+    }
+  }
+
+  public static Lease lease() throws IOException, SQLException {
+    PostgreSQLContainer postgres = getInstance();
+    return new Lease(postgres, admin, "test_" + leases.incrementAndGet());
+  }
+
+  public static class Lease implements AutoCloseable {
+    private final String url;
+    private final String schema;
+    private final Properties properties;
+    private final ConnectionPool admin;
+    private final ConnectionPool pool;
+
+    private Lease(PostgreSQLContainer postgres, ConnectionPool admin, String schema) throws SQLException {
+      this.url = postgres.getJdbcUrl();
+      this.schema = schema;
+      this.admin = admin;
+
+      // Every connection opened with these properties starts with search_path set to the leased schema
+      properties = new Properties();
+      properties.setProperty("user", postgres.getUsername());
+      properties.setProperty("password", postgres.getPassword());
+      properties.setProperty("currentSchema", schema);
+
+      execute("CREATE SCHEMA " + schema);
+      pool = new ConnectionPool(url, properties);
+    }
+
+    public String url() {
+      return url;
+    }
+
+    public String schema() {
+      return schema;
+    }
+
+    public Properties properties() {
+      return properties;
+    }
+
+    public ConnectionPool pool() {
+      return pool;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      pool.close();
+      execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+    }
+
+    private void execute(String sql) throws SQLException {
+      try (Connection conn = admin.getConnection()) {
+        try (Statement stmt = conn.createStatement()) {
+          stmt.executeUpdate(sql);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package org.finra.samples;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Reports the hottest SQL statements of a test run, merged over every Postgres server the run used. Enable with
+ * {@code -Dpostgres.statements=true}: the servers then preload {@code pg_stat_statements}, and each server registers
+ * itself once it is up, which resets its counters. Servers that stop before the end of the run are collected when they
+ * stop, the rest when the run finishes. The merged statistics go to {@code statement-stats.csv} in the
+ * {@link TestReports} directory and the top {@code -Dpostgres.statements.top} statements by total time, calls and rows
+ * to the build output. Runs as a surefire listener, see the pom.
+ */
+public class StatementStats extends RunListener {
+  private static Logger LOGGER = LoggerFactory.getLogger(StatementStats.class);
+
+  private static final int TOP = Integer.getInteger("postgres.statements.top", 10);
+
+  private static final Map<String, Properties> servers = new LinkedHashMap<>();
+  private static final Map<String, Entry> merged = new HashMap<>();
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("postgres.statements");
+  }
+
+  public static List<String> postgresParams() {
+    if (!isEnabled()) {
+      return Collections.emptyList();
+    }
+    // Statements inside functions are counted too, that is where most of the SQL under test runs
+    return Arrays.asList(
+        "-c", "shared_preload_libraries=pg_stat_statements",
+        "-c", "pg_stat_statements.track=all",
+        "-c", "pg_stat_statements.max=10000");
+  }
+
+  public static synchronized void register(String url, Properties properties) throws SQLException {
+    if (!isEnabled()) {
+      return;
+    }
+    try (Connection conn = DriverManager.getConnection(url, properties)) {
+      try (Statement stmt = conn.createStatement()) {
+        stmt.execute("CREATE EXTENSION IF NOT EXISTS pg_stat_statements");
+        stmt.executeQuery("SELECT pg_stat_statements_reset()").close();
+      }
+    }
+    servers.put(url, properties);
+  }
+
+  public static synchronized void unregister(String url) {
+    Properties properties = servers.remove(url);
+    if (properties != null) {
+      collect(url, properties);
+    }
+  }
+
+  @Override
+  public void testRunStarted(Description description) throws Exception {
+    synchronized (StatementStats.class) {
+      merged.clear();
+      for (Map.Entry<String, Properties> server : servers.entrySet()) {
+        try (Connection conn = DriverManager.getConnection(server.getKey(), server.getValue())) {
+          try (Statement stmt = conn.createStatement()) {
+            stmt.executeQuery("SELECT pg_stat_statements_reset()").close();
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void testRunFinished(Result result) throws Exception {
+    if (!isEnabled()) {
+      return;
+    }
+
+    List<Entry> entries;
+    synchronized (StatementStats.class) {
+      for (String url : new ArrayList<>(servers.keySet())) {
+        unregister(url);
+      }
+      entries = new ArrayList<>(merged.values());
+    }
+    entries.sort(Comparator.comparingDouble((Entry entry) -> entry.totalMillis).reversed());
+
+    try (Writer csv = Files.newBufferedWriter(TestReports.file("statement-stats.csv"), StandardCharsets.UTF_8)) {
+      csv.write("query,calls,totalMs,meanMs,rows,sharedBlksHit,sharedBlksRead\n");
+      for (Entry entry : entries) {
+        csv.write(String.format("\"%s\",%d,%.3f,%.3f,%d,%d,%d%n", entry.query.replace("\"", "\"\""),
+            entry.calls, entry.totalMillis, entry.totalMillis / entry.calls, entry.rows,
+            entry.sharedBlksHit, entry.sharedBlksRead));
+      }
+    }
+
+    LOGGER.info(summary("total time", entries, entry -> entry.totalMillis));
+    LOGGER.info(summary("calls", entries, entry -> entry.calls));
+    LOGGER.info(summary("rows", entries, entry -> entry.rows));
+  }
+
+  private static void collect(String url, Properties properties) {
+    try (Connection conn = DriverManager.getConnection(url, properties)) {
+      try (Statement stmt = conn.createStatement()) {
+        // total_time was split into planning and execution time in Postgres 13
+        String totalTime;
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT count(*) FROM pg_attribute\n"
+                + "WHERE attrelid = 'pg_stat_statements'::regclass AND attname = 'total_exec_time'")) {
+          rs.next();
+          totalTime = rs.getInt(1) > 0 ? "total_exec_time" : "total_time";
+        }
+
+        try (ResultSet rs = stmt.executeQuery(
+            "SELECT query, calls, " + totalTime + ", rows, shared_blks_hit, shared_blks_read\n"
+                + "FROM pg_stat_statements\n"
+                + "WHERE query NOT LIKE '%pg_stat_statements%'")) {
+          while (rs.next()) {
+            // Query ids hash relation oids, which differ between servers, so statements are merged by their text
+            merged.computeIfAbsent(rs.getString(1), Entry::new)
+                .add(rs.getLong(2), rs.getDouble(3), rs.getLong(4), rs.getLong(5), rs.getLong(6));
+          }
+        }
+      }
+    }
+    catch (SQLException e) {
+      LOGGER.warn("Could not collect pg_stat_statements from {}", url, e);
+    }
+  }
+
+  private static String summary(String metric, List<Entry> entries, ToDoubleFunction<Entry> value) {
+    List<Entry> top = entries.stream()
+        .sorted(Comparator.comparingDouble(value).reversed())
+        .limit(TOP)
+        .collect(Collectors.toList());
+
+    StringBuilder summary = new StringBuilder("Top statements by " + metric + ":");
+    for (Entry entry : top) {
+      summary.append(String.format("%n  %10.1f ms  %8d calls  %10d rows  %s", entry.totalMillis, entry.calls,
+          entry.rows, entry.query.replaceAll("\\s+", " ")));
+    }
+    return summary.toString();
+  }
+
+  private static class Entry {
+    private final String query;
+    private long calls;
+    private double totalMillis;
+    private long rows;
+    private long sharedBlksHit;
+    private long sharedBlksRead;
+
+    private Entry(String query) {
+      this.query = query;
+    }
+
+    private void add(long calls, double totalMillis, long rows, long sharedBlksHit, long sharedBlksRead) {
+      this.calls += calls;
+      this.totalMillis += totalMillis;
+      this.rows += rows;
+      this.sharedBlksHit += sharedBlksHit;
+      this.sharedBlksRead += sharedBlksRead;
+    }
+  }
+}
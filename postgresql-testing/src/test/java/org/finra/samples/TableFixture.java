@@ -0,0 +1,138 @@
+package org.finra.samples;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table-driven SQL test read from a JSON resource: the rows to load, the call to make and the tables expected
+ * afterwards.
+ * <pre>
+ * {
+ *   "input": [{"table": "test_values", "columns": ["id", "value"], "rows": [[1, 25], [2, 41]]}],
+ *   "call": "SELECT * FROM add_one()",
+ *   "expected": [{"query": "SELECT id, value FROM test_values", "columns": ["id", "value"], "rows": [[1, 26], [2, 42]]}]
+ * }
+ * </pre>
+ * Instead of {@code rows}, an input or expected table can name a {@code csv} resource with a header line. Input rows are
+ * loaded with {@link CopyLoader}. Each expected table is copied into a temporary table shaped like the query's result
+ * and compared with the actual rows in a single {@code EXCEPT ALL} query in both directions, so the number of round
+ * trips does not grow with the number of rows. Rows missing from the result or not expected in it fail the test.
+ */
+public final class TableFixture {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String EXPECTED_TABLE = "fixture_expected";
+  private static final int REPORTED_DIFFERENCES = 20;
+
+  private final String resource;
+  private final JsonNode fixture;
+
+  private TableFixture(String resource, JsonNode fixture) {
+    this.resource = resource;
+    this.fixture = fixture;
+  }
+
+  public static TableFixture load(String resource) throws IOException {
+    return new TableFixture(resource, MAPPER.readTree(Resources.toString(Resources.getResource(resource),
+        Charsets.UTF_8)));
+  }
+
+  public void run(Connection conn) throws IOException, SQLException {
+    for (JsonNode input : fixture.path("input")) {
+      CopyLoader.load(conn, dataset(input.get("table").asText(), input));
+    }
+
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute(fixture.get("call").asText());
+    }
+
+    List<String> differences = new ArrayList<>();
+    for (JsonNode expected : fixture.path("expected")) {
+      differences.addAll(compare(conn, expected));
+    }
+    if (!differences.isEmpty()) {
+      throw new AssertionError(resource + " does not match:\n  " + String.join("\n  ", differences));
+    }
+  }
+
+  private static List<String> compare(Connection conn, JsonNode expected) throws IOException, SQLException {
+    String query = expected.get("query").asText();
+    List<String> differences = new ArrayList<>();
+
+    try (Statement stmt = conn.createStatement()) {
+      // Shaped after the query, so the expected values are parsed into the same types as the actual ones
+      stmt.executeUpdate("CREATE TEMP TABLE " + EXPECTED_TABLE + " AS\n"
+          + "SELECT * FROM (" + query + ") actual\n"
+          + "WITH NO DATA");
+      try {
+        CopyLoader.load(conn, dataset(EXPECTED_TABLE, expected));
+
+        try (ResultSet rs = stmt.executeQuery(
+            "WITH actual AS (" + query + ")\n"
+                + "SELECT d.*, count(*) OVER () FROM (\n"
+                + "  (SELECT 'missing' AS difference, * FROM " + EXPECTED_TABLE + "\n"
+                + "   EXCEPT ALL SELECT 'missing', * FROM actual)\n"
+                + "  UNION ALL\n"
+                + "  (SELECT 'unexpected', * FROM actual\n"
+                + "   EXCEPT ALL SELECT 'unexpected', * FROM " + EXPECTED_TABLE + ")\n"
+                + ") d\n"
+                + "LIMIT " + REPORTED_DIFFERENCES)) {
+          int columns = rs.getMetaData().getColumnCount() - 1;
+          long total = 0;
+          while (rs.next()) {
+            StringBuilder row = new StringBuilder(rs.getString(1)).append(" (");
+            for (int i = 2; i <= columns; i++) {
+              row.append(i > 2 ? ", " : "").append(rs.getString(i));
+            }
+            differences.add(row.append(')').toString());
+            total = rs.getLong(columns + 1);
+          }
+          if (total > differences.size()) {
+            differences.add("... " + (total - differences.size()) + " more differences");
+          }
+        }
+      }
+      finally {
+        stmt.executeUpdate("DROP TABLE " + EXPECTED_TABLE);
+      }
+    }
+
+    if (!differences.isEmpty()) {
+      differences.add(0, query + ":");
+    }
+    return differences;
+  }
+
+  private static Dataset dataset(String table, JsonNode node) {
+    String[] columns = strings(node.path("columns"));
+    if (node.has("csv")) {
+      return Dataset.csv(table, node.get("csv").asText(), columns);
+    }
+
+    List<Object[]> rows = new ArrayList<>();
+    for (JsonNode row : node.path("rows")) {
+      Object[] values = new Object[row.size()];
+      for (int i = 0; i < values.length; i++) {
+        JsonNode value = row.get(i);
+        values[i] = value.isNull() ? null : value.isNumber() ? value.numberValue() : value.asText();
+      }
+      rows.add(values);
+    }
+    return Dataset.rows(table, rows, columns);
+  }
+
+  private static String[] strings(JsonNode array) {
+    String[] strings = new String[array.size()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = array.get(i).asText();
+    }
+    return strings;
+  }
+}
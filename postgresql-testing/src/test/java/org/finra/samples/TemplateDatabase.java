@@ -0,0 +1,111 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * Builds a schema-loaded template database once per cluster and hands out cheap per-test copies of it
+ * through {@code CREATE DATABASE ... TEMPLATE}.
+ */
+public class TemplateDatabase implements AutoCloseable {
+  private static Logger LOGGER = LoggerFactory.getLogger(TemplateDatabase.class);
+
+  private static final String MAINTENANCE_DATABASE = "postgres";
+
+  private final String host;
+  private final int port;
+  private final Properties properties;
+  private final String templateName;
+  private final AtomicInteger clones = new AtomicInteger();
+  private final ConnectionPool maintenance;
+
+  public TemplateDatabase(String host, int port, Properties properties, String templateName) {
+    this.host = host;
+    this.port = port;
+    this.properties = properties;
+    this.templateName = templateName;
+    this.maintenance = new ConnectionPool(url(MAINTENANCE_DATABASE), properties);
+  }
+
+  public String url(String database) {
+    return format("jdbc:postgresql://%s:%s/%s", host, port, database);
+  }
+
+  public Properties properties() {
+    return properties;
+  }
+
+  public Connection getMaintenanceConnection() throws SQLException {
+    return maintenance.getConnection();
+  }
+
+  public void create(String... scripts) throws IOException, SQLException {
+    try (PhaseTimings.Timing timing = PhaseTimings.time("template.create")) {
+      execute("CREATE DATABASE " + templateName);
+
+      // Not pooled: the session has to be gone before the database is turned into a template
+      try (Connection conn = DriverManager.getConnection(url(templateName), properties)) {
+        try (Statement stmt = conn.createStatement()) {
+          for (String script : scripts) {
+            stmt.executeUpdate(Resources.toString(Resources.getResource(script), Charsets.UTF_8));
+          }
+        }
+      }
+
+      // No session may stay connected to the template, otherwise CREATE DATABASE ... TEMPLATE refuses to copy it
+      execute("ALTER DATABASE " + templateName + " WITH IS_TEMPLATE true ALLOW_CONNECTIONS false");
+    }
+    LOGGER.info("Template database {} created from {} script(s)", templateName, scripts.length);
+  }
+
+  /**
+   * Turns a copy of an existing, already loaded database into the template. Nothing may be connected to
+   * {@code source} while it is copied.
+   */
+  public void createFrom(String source) throws SQLException {
+    try (PhaseTimings.Timing timing = PhaseTimings.time("template.create")) {
+      execute("CREATE DATABASE " + templateName + " TEMPLATE " + source);
+      execute("ALTER DATABASE " + templateName + " WITH IS_TEMPLATE true ALLOW_CONNECTIONS false");
+    }
+    LOGGER.info("Template database {} copied from {}", templateName, source);
+  }
+
+  public String cloneDatabase() throws SQLException {
+    String database = templateName + "_" + clones.incrementAndGet();
+    try (PhaseTimings.Timing timing = PhaseTimings.time("template.clone")) {
+      execute("CREATE DATABASE " + database + " TEMPLATE " + templateName);
+    }
+    return database;
+  }
+
+  public void dropDatabase(String database) throws SQLException {
+    try (PhaseTimings.Timing timing = PhaseTimings.time("template.drop")) {
+      execute("DROP DATABASE IF EXISTS " + database);
+    }
+  }
+
+  @Override
+  public void close() {
+    maintenance.close();
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection conn = maintenance.getConnection()) {
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeUpdate(sql);
+      }
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package org.finra.samples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Picks the plpgunit functions affected by what changed in the database since the previous run of a suite. Every
+ * function, table and view outside the system schemas is fingerprinted from the catalog, and a function depends on the
+ * objects whose names appear in its source; {@code pg_depend} does not track function bodies, so the source is all
+ * there is to go on. A test runs when an object it reaches through those references changed, appeared or disappeared,
+ * when the test itself is new, or when it failed last time. Objects are compared by name, so overloads and
+ * same-named objects in other schemas count as one, which errs on the side of running a test.
+ * <p>
+ * Selection is opt-in with {@code -Dpostgres.sql.selection=affected}; {@code all}, the default, runs everything and
+ * still records the fingerprints. The state of each suite is kept in {@code -Dpostgres.sql.stateDir}, a first run or
+ * a {@code mvn clean} runs every test.
+ */
+public final class TestImpact {
+  private static Logger LOGGER = LoggerFactory.getLogger(TestImpact.class);
+
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
+  private static final String FAILED = "failed";
+  private static final String HASH_PREFIX = "hash.";
+
+  private final Path stateFile;
+  private final Map<String, String> hashes;
+  private final Map<String, Set<String>> references;
+
+  private TestImpact(Path stateFile, Map<String, String> hashes, Map<String, Set<String>> references) {
+    this.stateFile = stateFile;
+    this.hashes = hashes;
+    this.references = references;
+  }
+
+  public static boolean isSelective() {
+    return "affected".equalsIgnoreCase(System.getProperty("postgres.sql.selection", "all"));
+  }
+
+  /**
+   * Reads the objects of the database {@code conn} points to; {@code suite} names the state kept between runs.
+   */
+  public static TestImpact analyze(Connection conn, String suite) throws SQLException {
+    Map<String, StringBuilder> definitions = new TreeMap<>();
+    Map<String, String> sources = new HashMap<>();
+
+    try (Statement stmt = conn.createStatement()) {
+      // Aggregates have no definition pg_get_functiondef can print
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT lower(p.proname), md5(pg_get_functiondef(p.oid)), p.prosrc FROM pg_proc p\n"
+              + "JOIN pg_namespace n ON n.oid = p.pronamespace\n"
+              + "WHERE n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg_toast%'\n"
+              + "AND NOT EXISTS (SELECT 1 FROM pg_aggregate a WHERE a.aggfnoid = p.oid)\n"
+              + "ORDER BY 1, 2")) {
+        while (rs.next()) {
+          definitions.computeIfAbsent(rs.getString(1), name -> new StringBuilder()).append(rs.getString(2));
+          sources.merge(rs.getString(1), rs.getString(3), (a, b) -> a + "\n" + b);
+        }
+      }
+
+      try (ResultSet rs = stmt.executeQuery(
+          "SELECT lower(c.relname),\n"
+              + "  md5(c.relkind || coalesce(pg_get_viewdef(c.oid), '') || coalesce(string_agg(\n"
+              + "    a.attname || ' ' || format_type(a.atttypid, a.atttypmod), ',' ORDER BY a.attnum), '')),\n"
+              + "  pg_get_viewdef(c.oid)\n"
+              + "FROM pg_class c\n"
+              + "JOIN pg_namespace n ON n.oid = c.relnamespace\n"
+              + "LEFT JOIN pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped\n"
+              + "WHERE c.relkind IN ('r', 'v', 'm')\n"
+              + "AND n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg_toast%'\n"
+              + "GROUP BY c.oid, c.relname, c.relkind\n"
+              + "ORDER BY 1, 2")) {
+        while (rs.next()) {
+          definitions.computeIfAbsent(rs.getString(1), name -> new StringBuilder()).append(rs.getString(2));
+          if (rs.getString(3) != null) {
+            sources.merge(rs.getString(1), rs.getString(3), (a, b) -> a + "\n" + b);
+          }
+        }
+      }
+    }
+
+    Map<String, String> hashes = new TreeMap<>();
+    definitions.forEach((name, definition) -> hashes.put(name, definition.toString()));
+
+    Map<String, Set<String>> references = new HashMap<>();
+    sources.forEach((name, source) -> references.put(name, identifiers(source)));
+
+    Path stateFile = Paths.get(System.getProperty("postgres.sql.stateDir", "target/postgres-state"))
+        .resolve(suite + ".properties");
+    return new TestImpact(stateFile, hashes, references);
+  }
+
+  public List<String> select(List<String> tests) throws IOException {
+    if (!isSelective()) {
+      return tests;
+    }
+    if (!Files.exists(stateFile)) {
+      LOGGER.info("No previous run recorded in {}, running all {} unit test functions", stateFile, tests.size());
+      return tests;
+    }
+
+    Properties state = new Properties();
+    try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+      state.load(reader);
+    }
+
+    Set<String> changed = new TreeSet<>();
+    Set<String> known = new HashSet<>(hashes.keySet());
+    for (String key : state.stringPropertyNames()) {
+      if (key.startsWith(HASH_PREFIX)) {
+        String name = key.substring(HASH_PREFIX.length());
+        known.add(name);
+        if (!state.getProperty(key).equals(hashes.get(name))) {
+          changed.add(name);
+        }
+      }
+    }
+    for (String name : hashes.keySet()) {
+      if (!state.containsKey(HASH_PREFIX + name)) {
+        changed.add(name);
+      }
+    }
+    Set<String> failed = new HashSet<>(Arrays.asList(state.getProperty(FAILED, "").split(",")));
+
+    List<String> selected = new ArrayList<>();
+    for (String test : tests) {
+      if (failed.contains(test) || !Collections.disjoint(reachable(test.toLowerCase(Locale.ROOT), known), changed)) {
+        selected.add(test);
+      }
+    }
+
+    LOGGER.info("Selected {} of {} unit test functions, changed objects: {}", selected.size(), tests.size(),
+        changed);
+    return selected;
+  }
+
+  public void record(Collection<PlpgunitRunner.Result> results) throws IOException {
+    Properties state = new Properties();
+    hashes.forEach((name, hash) -> state.setProperty(HASH_PREFIX + name, hash));
+    state.setProperty(FAILED, results.stream()
+        .filter(result -> !result.passed())
+        .map(PlpgunitRunner.Result::functionName)
+        .sorted()
+        .collect(Collectors.joining(",")));
+
+    Files.createDirectories(stateFile.getParent());
+    try (Writer writer = Files.newBufferedWriter(stateFile, StandardCharsets.UTF_8)) {
+      state.store(writer, "Catalog fingerprints of the last unit test run");
+    }
+  }
+
+  // Names reached from the test through the sources of the functions and views it references, the test included
+  private Set<String> reachable(String test, Set<String> known) {
+    Set<String> reached = new HashSet<>();
+    Deque<String> pending = new ArrayDeque<>(Collections.singleton(test));
+    while (!pending.isEmpty()) {
+      String name = pending.pop();
+      if (reached.add(name)) {
+        for (String reference : references.getOrDefault(name, Collections.emptySet())) {
+          if (known.contains(reference)) {
+            pending.push(reference);
+          }
+        }
+      }
+    }
+    return reached;
+  }
+
+  private static Set<String> identifiers(String source) {
+    Set<String> identifiers = new HashSet<>();
+    Matcher matcher = IDENTIFIER.matcher(source);
+    while (matcher.find()) {
+      identifiers.add(matcher.group().toLowerCase(Locale.ROOT));
+    }
+    return identifiers;
+  }
+}
@@ -0,0 +1,20 @@
+package org.finra.samples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Location of the machine-readable reports the Postgres fixtures write next to the surefire reports. Override with
+ * {@code -Dpostgres.reports.dir}.
+ */
+public final class TestReports {
+  private TestReports() {
+  }
+
+  public static Path file(String name) throws IOException {
+    Path directory = Paths.get(System.getProperty("postgres.reports.dir", "target/postgres-reports"));
+    return Files.createDirectories(directory).resolve(name);
+  }
+}
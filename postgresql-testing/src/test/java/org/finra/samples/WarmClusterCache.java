@@ -0,0 +1,210 @@
+package org.finra.samples;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import de.flapdoodle.embed.process.config.IRuntimeConfig;
+import de.flapdoodle.embed.process.distribution.IVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.yandex.qatools.embed.postgresql.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Opt-in cache of an initialized, schema-loaded data directory that survives between Maven runs. Snapshots are keyed
+ * by the Postgres version and a hash of the SQL resources, so they are rebuilt only when one of those files changes.
+ * Enable with {@code -Dpostgres.warmCache=true}; {@code -Dpostgres.warmCache.dir} overrides the cache location.
+ */
+public class WarmClusterCache {
+  private static Logger LOGGER = LoggerFactory.getLogger(WarmClusterCache.class);
+
+  private static final String[] HASHED_DIRECTORIES = {"install", "scripts", "testFunctions"};
+
+  private final IVersion version;
+  private final String[] scripts;
+  private final Path root;
+
+  private EmbeddedPostgres postgres;
+  private Path dataDirectory;
+  private String url;
+
+  public WarmClusterCache(IVersion version, String... scripts) {
+    this.version = version;
+    this.scripts = scripts;
+    this.root = Paths.get(System.getProperty("postgres.warmCache.dir",
+        Paths.get(System.getProperty("user.home"), ".embedpostgresql", "warm").toString()));
+  }
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("postgres.warmCache");
+  }
+
+  public String start(String host, int port, String dbName, String user, String password)
+      throws IOException, SQLException {
+    Path snapshot = root.resolve("clusters").resolve(version.asInDownloadPath() + "-" + key());
+
+    if (!Files.isDirectory(snapshot)) {
+      LOGGER.info("No warm cluster at {}, building it", snapshot);
+      try (PhaseTimings.Timing timing = PhaseTimings.time("warmCache.build")) {
+        build(snapshot, host, port, dbName, user, password);
+      }
+    }
+
+    dataDirectory = Files.createTempDirectory(Files.createDirectories(root.resolve("run")), "data-");
+    try (PhaseTimings.Timing timing = PhaseTimings.time("warmCache.copy")) {
+      copy(snapshot, dataDirectory);
+    }
+
+    // A non-empty data directory makes the embedded process skip initdb
+    postgres = new EmbeddedPostgres(version, dataDirectory.toString());
+    PerformanceProfile profile = PerformanceProfile.current();
+    try (PhaseTimings.Timing timing = PhaseTimings.time("warmCache.start")) {
+      url = postgres.start(runtimeConfig(), host, port, dbName, user, password,
+          profile.initDbParams(), profile.postgresParams());
+    }
+    StatementStats.register(url, new Properties());
+    return url;
+  }
+
+  public void stop() {
+    if (url != null) {
+      StatementStats.unregister(url);
+    }
+    if (postgres != null && postgres.getProcess().isPresent() && postgres.getProcess().get().isProcessRunning()) {
+      postgres.stop();
+    }
+    if (dataDirectory != null) {
+      delete(dataDirectory);
+      dataDirectory = null;
+    }
+  }
+
+  private void build(Path snapshot, String host, int port, String dbName, String user, String password)
+      throws IOException, SQLException {
+    Path building = Files.createTempDirectory(Files.createDirectories(root.resolve("build")), "data-");
+
+    PerformanceProfile profile = PerformanceProfile.current();
+    EmbeddedPostgres builder = new EmbeddedPostgres(version, building.toString());
+    String url = builder.start(runtimeConfig(), host, port, dbName, user, password,
+        profile.initDbParams(), profile.postgresParams());
+    try (Connection conn = DriverManager.getConnection(url)) {
+      try (Statement stmt = conn.createStatement()) {
+        for (String script : scripts) {
+          stmt.executeUpdate(Resources.toString(Resources.getResource(script), Charsets.UTF_8));
+        }
+      }
+    }
+    finally {
+      // A clean shutdown leaves no postmaster.pid behind, so the snapshot can be started as-is
+      builder.stop();
+    }
+
+    try {
+      Files.createDirectories(snapshot.getParent());
+      Files.move(building, snapshot, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+      LOGGER.info("Warm cluster {} was built concurrently, discarding this copy", snapshot);
+      delete(building);
+    }
+  }
+
+  private IRuntimeConfig runtimeConfig() throws IOException {
+    // Keep the extracted binaries next to the snapshots instead of unpacking them on every run
+    return EmbeddedPostgres.cachedRuntimeConfig(Files.createDirectories(root.resolve("binaries")));
+  }
+
+  private String key() throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(version.asInDownloadPath(), Charsets.UTF_8);
+    for (String script : scripts) {
+      hasher.putString(script, Charsets.UTF_8);
+    }
+
+    for (String directory : HASHED_DIRECTORIES) {
+      Path base = resourceDirectory(directory);
+      if (base == null) {
+        continue;
+      }
+      try (Stream<Path> files = Files.walk(base)) {
+        for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+          hasher.putString(directory + "/" + base.relativize(file).toString().replace('\\', '/'), Charsets.UTF_8);
+          hasher.putBytes(Files.readAllBytes(file));
+        }
+      }
+    }
+    return hasher.hash().toString().substring(0, 16);
+  }
+
+  private static Path resourceDirectory(String directory) throws IOException {
+    URL url = WarmClusterCache.class.getClassLoader().getResource(directory);
+    if (url == null) {
+      return null;
+    }
+    try {
+      return Paths.get(url.toURI());
+    }
+    catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void copy(Path source, Path target) throws IOException {
+    // Prefer a copy-on-write clone where the file system supports it, fall back to a plain recursive copy
+    try {
+      Process cp = new ProcessBuilder("cp", "-a", "--reflink=auto", source + "/.", target.toString())
+          .redirectErrorStream(true)
+          .start();
+      if (cp.waitFor() == 0) {
+        return;
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("cp is not available, copying {} file by file", source);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+
+    try (Stream<Path> files = Files.walk(source)) {
+      files.forEach(file -> {
+        try {
+          Path destination = target.resolve(source.relativize(file).toString());
+          if (Files.isDirectory(file)) {
+            Files.createDirectories(destination);
+          }
+          else {
+            Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+          }
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+
+  private static void delete(Path directory) {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+    catch (IOException e) {
+      LOGGER.warn("Could not delete {}", directory, e);
+    }
+  }
+}
@@ -0,0 +1,6 @@
+CREATE FUNCTION add_one_set() RETURNS integer AS $$
+BEGIN
+  UPDATE test_values SET value = value + 1;
+  RETURN 1;
+END
+$$ LANGUAGE plpgsql;